@@ -0,0 +1,309 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import com.mongodb.client.AggregateIterable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+
+/**
+ * Aggregation pipeline over the objects matched by a query. The pipeline starts with 
+ * the filter, sort, skip, limit and projection of the query, stages added afterwards
+ * run on the server and only their results are transferred.
+ * 
+ * Field paths are validated against the kind until a stage changes the shape of the
+ * documents ($group, $project, $bucket), fields added by $lookup are not validated
+ * 
+ * @author ahmed
+ * @param <T>
+ */
+public class Aggregation<T extends Base> {
+    
+    /* Output field of $group and $bucket stages */
+    public static class Accumulator {
+        final String name;
+        final Document expression;
+
+        private Accumulator(String name, String operator, Object argument) {
+            this.name = name;
+            this.expression = new Document(operator, argument);
+        }
+    }
+    
+    public static Accumulator sum(String name, String field) {
+        return new Accumulator(name, "$sum", "$" + field);
+    }
+    
+    public static Accumulator count(String name) {
+        return new Accumulator(name, "$sum", 1);
+    }
+    
+    public static Accumulator avg(String name, String field) {
+        return new Accumulator(name, "$avg", "$" + field);
+    }
+    
+    public static Accumulator min(String name, String field) {
+        return new Accumulator(name, "$min", "$" + field);
+    }
+    
+    public static Accumulator max(String name, String field) {
+        return new Accumulator(name, "$max", "$" + field);
+    }
+    
+    public static Accumulator first(String name, String field) {
+        return new Accumulator(name, "$first", "$" + field);
+    }
+    
+    public static Accumulator last(String name, String field) {
+        return new Accumulator(name, "$last", "$" + field);
+    }
+    
+    public static Accumulator push(String name, String field) {
+        return new Accumulator(name, "$push", "$" + field);
+    }
+    
+    public static Accumulator addToSet(String name, String field) {
+        return new Accumulator(name, "$addToSet", "$" + field);
+    }
+    
+    private final Query<T> query;
+    private final List<Document> stages;
+    
+    /* true while the documents still have the fields of the kind */
+    private boolean kindShape;
+    
+    /* fields added by $lookup stages */
+    private final Set<String> added;
+
+    Aggregation(Query<T> query) {
+        this.query = query;
+        this.stages = new ArrayList<>();
+        this.kindShape = true;
+        this.added = new HashSet<>();
+    }
+    
+    private String field(String path) {
+        if(kindShape && !added.contains(path.split("\\.")[0]))
+            Filter.validateFieldPath(path, query.clazz);
+        
+        return path;
+    }
+    
+    private Document accumulators(Document target, Accumulator... accumulators) {
+        for(Accumulator accumulator : accumulators) {
+            for(Object argument : accumulator.expression.values()) {
+                if(argument instanceof String)
+                    field(((String) argument).substring(1));
+            }
+            
+            target.put(accumulator.name, accumulator.expression);
+        }
+        
+        return target;
+    }
+
+    /**
+     * Groups the documents by the value of a field
+     * 
+     * @param field field to group by, null groups all documents together
+     * @param accumulators output fields, the group value is in _id
+     * @return 
+     */
+    public Aggregation<T> group(String field, Accumulator... accumulators) {
+        Document group = new Document("_id", field != null ? "$" + field(field) : null);
+        
+        accumulators(group, accumulators);
+        stages.add(new Document("$group", group));
+        kindShape = false;
+        
+        return this;
+    }
+    
+    /* Groups by several fields, _id of the results holds one entry per field */
+    public Aggregation<T> group(List<String> fields, Accumulator... accumulators) {
+        Document id = new Document();
+        
+        for(String f : fields)
+            id.put(f.replace('.', '_'), "$" + field(f));
+        
+        Document group = new Document("_id", id);
+        
+        accumulators(group, accumulators);
+        stages.add(new Document("$group", group));
+        kindShape = false;
+        
+        return this;
+    }
+    
+    public Aggregation<T> unwind(String field) {
+        return unwind(field, false);
+    }
+    
+    /* One document per element of an array field, the element replaces the array */
+    public Aggregation<T> unwind(String field, boolean preserveNullAndEmptyArrays) {
+        Document unwind = new Document("path", "$" + field(field));
+        
+        if(preserveNullAndEmptyArrays)
+            unwind.put("preserveNullAndEmptyArrays", true);
+        
+        stages.add(new Document("$unwind", unwind));
+        
+        return this;
+    }
+    
+    /* Keeps only the given fields */
+    public Aggregation<T> project(String... fields) {
+        Document project = new Document();
+        
+        for(String f : fields)
+            project.put(field(f), 1);
+        
+        return project(project);
+    }
+    
+    /* Projection stage with computed fields, field paths in expressions are not validated */
+    public Aggregation<T> project(Document projection) {
+        stages.add(new Document("$project", projection));
+        kindShape = false;
+        
+        return this;
+    }
+    
+    /**
+     * Groups the documents in ranges of a field
+     * 
+     * @param field
+     * @param boundaries sorted lower bounds of the buckets, the last one is the upper bound of the last bucket
+     * @param defaultBucket _id of the bucket for values outside the boundaries, null if all values fit
+     * @param accumulators output fields, a count is returned if none is given
+     * @return 
+     */
+    public Aggregation<T> bucket(String field, List<?> boundaries, Object defaultBucket, Accumulator... accumulators) {
+        Document bucket = new Document("groupBy", "$" + field(field))
+                              .append("boundaries", boundaries);
+        
+        if(defaultBucket != null)
+            bucket.put("default", defaultBucket);
+        
+        if(accumulators.length > 0)
+            bucket.put("output", accumulators(new Document(), accumulators));
+        
+        stages.add(new Document("$bucket", bucket));
+        kindShape = false;
+        
+        return this;
+    }
+    
+    /**
+     * Adds the documents of another kind whose foreignField equals localField as an array
+     * 
+     * @param from kind to join
+     * @param localField
+     * @param foreignField field of the joined kind
+     * @param as name of the array field added
+     * @return 
+     */
+    public Aggregation<T> lookup(Class<? extends Base> from, String localField, String foreignField, String as) {
+        Filter.validateFieldPath(foreignField, from);
+        
+        stages.add(new Document("$lookup", new Document("from", ClassMap.getKind(from))
+                                                  .append("localField", field(localField))
+                                                  .append("foreignField", foreignField)
+                                                  .append("as", as)));
+        added.add(as);
+        
+        return this;
+    }
+    
+    public Aggregation<T> sort(String field, Query.SortDirection dir) {
+        stages.add(new Document("$sort", new Document(field(field), dir.dir)));
+        
+        return this;
+    }
+    
+    public Aggregation<T> limit(int limit) {
+        stages.add(new Document("$limit", limit));
+        
+        return this;
+    }
+    
+    /* Adds a stage as is, the shape of the documents is assumed to change */
+    public Aggregation<T> stage(Document stage) {
+        stages.add(stage);
+        kindShape = false;
+        
+        return this;
+    }
+    
+    /* The full pipeline including the stages of the query */
+    public List<Document> getPipeline() {
+        List<Document> pipeline = new ArrayList<>();
+        
+        Document filter = query.getFilter();
+        if(!filter.isEmpty())
+            pipeline.add(new Document("$match", filter));
+        
+        if(!query.getSort().isEmpty())
+            pipeline.add(new Document("$sort", query.getSort()));
+        
+        if(query.getSkip() > 0)
+            pipeline.add(new Document("$skip", query.getSkip()));
+        
+        if(query.getLimit() > 0)
+            pipeline.add(new Document("$limit", query.getLimit()));
+        
+        if(!query.getProjection().isEmpty())
+            pipeline.add(new Document("$project", query.getProjection()));
+        
+        pipeline.addAll(stages);
+        
+        return Collections.unmodifiableList(pipeline);
+    }
+    
+    public <R> ValueCursor<R> execute(Class<R> resultClass) {
+        return execute(Datastore.fetchDefaultService(), resultClass);
+    }
+    
+    /**
+     * Runs the pipeline, each result document is mapped to the result class
+     * 
+     * @param <R>
+     * @param datastore
+     * @param resultClass a Base subclass, Document, or a class with a no argument constructor whose public fields are set by name
+     * @return 
+     */
+    public <R> ValueCursor<R> execute(Datastore datastore, Class<R> resultClass) {
+        AggregateIterable<Document> results = CausalSession.aggregate(datastore.session(), query.readCollection(datastore), getPipeline())
+                                                       .maxTime(query.getMaxTime(datastore), TimeUnit.MILLISECONDS)
+                                                       .allowDiskUse(true)
+                                                       .batchSize(query.getBatch());
+        
+        return new ValueCursor<>(results.iterator(), new ResultMapper<>(resultClass));
+    }
+}
@@ -33,8 +33,8 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import org.bson.Document;
-import org.bson.types.ObjectId;
 import org.bson.json.JsonMode;
 import org.bson.json.JsonWriterSettings;
 import java.io.Serializable;
@@ -75,11 +75,14 @@ public abstract class Base implements Serializable {
     /* Key */
     private Key key;
     
-    /* mongo ObjectId */
-    private ObjectId _id;
+    /* mongo _id, an ObjectId or the key data for kinds using the key as _id */
+    private Object _id;
 
     /* underlying db entity */
     private Document loaded;
+    
+    /* stored fields as they were loaded for partially loaded objects, null when fully loaded */
+    private Document partial;
 
     public Base() {
         ClassMap.classVariables v = ClassMap.getVariables(this.getClass());
@@ -162,6 +165,14 @@ public abstract class Base implements Serializable {
         return data;
     }
     
+    /* projection returning only the key of stored objects, satisfied by the key index (or the _id index) */
+    protected static Document getKeyProjection(Class<? extends Base> clazz) {
+        if(ClassMap.getVariables(clazz).keyAsId)
+            return new Document("_id", 1);
+        
+        return getKeyFields(clazz).append("_id", 0);
+    }
+    
     /* Check if the field is final and non-static */
     public static boolean isKeyField(Field field) {
         return Modifier.isFinal(field.getModifiers()) && !Modifier.isStatic(field.getModifiers());
@@ -192,27 +203,49 @@ public abstract class Base implements Serializable {
     
     /* loads data into the object */
     protected void fromDocument(Document data) {
-        /* Get all public fields of the class */
-        Field[] fields = this.getClass().getFields();
-        for(Field field : fields) {
+        /* kinds using the key as _id can be loaded from the _id alone */
+        Object id = data.get("_id");
+        Document keyData = id instanceof Document ? (Document) id : null;
+        
+        /* stored fields of the class, final ones are already accessible */
+        ClassMap.classVariables v = ClassMap.getVariables(this.getClass());
+        
+        for(int i = 0; i < v.fields.length; i++) {
+            Field field = v.fields[i];
             String name = field.getName();
+            Object value;
             
-            if(data.containsKey(name)) {
-                if(Modifier.isFinal(field.getModifiers()))
-                    field.setAccessible(true);
+            if(data.containsKey(name))
+                value = data.get(name);
+            else if(keyData != null && isKeyField(field) && keyData.containsKey(name))
+                value = keyData.get(name);
+            else
+                continue;
 
-                Object value = data.get(name);
-                
-                try {
-                    field.set(this, convertDBToField(value, new TypeInfo(field)));
-                } catch (IllegalAccessException | IllegalArgumentException ex) {
-                    throw new MongomanException(ex);
-                }
+            try {
+                field.set(this, convertDBToField(value, v.types[i]));
+            } catch (IllegalAccessException | IllegalArgumentException ex) {
+                throw new MongomanException(ex);
             }
         }
         
-        _id = data.getObjectId("_id");
+        _id = id;
         loaded = data;
+        partial = null;
+    }
+    
+    /* marks the object as partially loaded, later saves only write the fields that change from now on */
+    protected void markPartial() {
+        partial = toDocument(dbExportMode);
+    }
+    
+    /**
+     * Partially loaded objects come from load(fields) or from queries with projections, 
+     * saving them only updates the modified fields
+     * @return true if the object was partially loaded
+     */
+    public boolean isPartial() {
+        return partial != null;
     }
     
     /* creates Document from item */
@@ -222,14 +255,11 @@ public abstract class Base implements Serializable {
         if(!mode.json && _id != null)
             data.put("_id", _id);
         
-        /* Get all public fields of the class */
-        Field[] fields = this.getClass().getFields();
+        /* stored fields of the class */
+        ClassMap.classVariables v = ClassMap.getVariables(this.getClass());
         
-        for(Field field : fields) {
-            /* must not be static */
-            if(Modifier.isStatic(field.getModifiers()))
-                continue;
-            
+        for(int i = 0; i < v.fields.length; i++) {
+            Field field = v.fields[i];
             String name = field.getName();
             
             try {
@@ -238,7 +268,7 @@ public abstract class Base implements Serializable {
                 if(mode.ignore_null && value == null)
                     continue;
                 
-                data.append(name, convertFieldToDB(value, field.isAnnotationPresent(FullSave.class), mode));
+                data.append(name, convertFieldToDB(value, v.fullSave[i], mode));
             } catch (IllegalAccessException | IllegalArgumentException ex) {
                 throw new MongomanException(ex);
             }
@@ -360,6 +390,94 @@ public abstract class Base implements Serializable {
         return loadNested ? loadNested(store, loaded) : true;
     }
 
+    /**
+     * loads only the given fields from default datastore 
+     * @param fields field paths to load, nested fields can be given as field.subfield
+     * @return true on success
+     */
+    public boolean load(String... fields) {
+        return load(Datastore.fetchDefaultService(), fields);
+    }
+
+    /**
+     * loads only the given fields from specified datastore, the object is marked 
+     * as partial and saving it will only update the fields modified after loading
+     * @param store the datastore to load the object from
+     * @param fields field paths to load, nested fields can be given as field.subfield
+     * @return true on success
+     */
+    public boolean load(Datastore store, String... fields) {
+        if(shallow)
+            throw new MongomanException("Shallow objects cannot be loaded: " + this.getClass().getName());
+        
+        Document projection = new Document();
+        
+        for(String field : fields) {
+            Filter.validateFieldPath(field, this.getClass());
+            projection.put(field, 1);
+        }
+        
+        Document data = store.get(getKey(), projection);
+        
+        if(data == null)
+            return false;
+        
+        fromDocument(data);
+        markPartial();
+        
+        return true;
+    }
+
+    /**
+     * loads the objects of the given keys from default datastore 
+     * @param <T>
+     * @param keys keys of the objects, usually obtained from Query.executeKeys()
+     * @return the loaded objects mapped by key in the order of keys, missing keys are omitted
+     */
+    public static <T extends Base> Map<Key, T> loadAll(Collection<Key> keys) {
+        return loadAll(Datastore.fetchDefaultService(), keys);
+    }
+
+    /**
+     * loads the objects of the given keys from specified datastore using one query per kind
+     * @param <T>
+     * @param store the datastore to load the objects from
+     * @param keys keys of the objects, usually obtained from Query.executeKeys()
+     * @return the loaded objects mapped by key in the order of keys, missing keys are omitted
+     */
+    public static <T extends Base> Map<Key, T> loadAll(Datastore store, Collection<Key> keys) {
+        Map<String, List<Key>> kinds = new HashMap<>();
+        
+        for(Key k : keys) {
+            if(!kinds.containsKey(k.kind))
+                kinds.put(k.kind, new ArrayList<>());
+            
+            kinds.get(k.kind).add(k);
+        }
+        
+        Map<Key, T> found = new HashMap<>();
+        
+        for(Map.Entry<String, List<Key>> e : kinds.entrySet()) {
+            Class<? extends Base> clazz = ClassMap.getClass(e.getKey());
+            
+            for(Document data : store.getAll(e.getKey(), e.getValue())) {
+                T item = createInstance(clazz, data);
+                found.put(item.getKey(), item);
+            }
+        }
+        
+        Map<Key, T> result = new LinkedHashMap<>();
+        
+        for(Key k : keys) {
+            T item = found.get(k);
+            
+            if(item != null)
+                result.put(k, item);
+        }
+        
+        return result;
+    }
+
     protected boolean loadNested(Datastore store, Map<Key, Document> loaded) {
         boolean result = true;
 
@@ -470,9 +588,12 @@ public abstract class Base implements Serializable {
         if(shallow)
            throw new MongomanException("Shallow objects cannot be saved: " + this.getClass().getName());
         
+        if(partial != null)
+            return savePartial(store, saveNested, concern);
+        
         Document doc = toDocument(this.dbExportMode);
         
-        ObjectId id = store.save(kind, getKey(), doc, concern);
+        Object id = store.save(kind, getKey(), doc, concern);
         
         if(saveNested)
             saveNested(store);
@@ -483,6 +604,44 @@ public abstract class Base implements Serializable {
         return id != null;
     }
     
+    /* only writes the fields that differ from what was loaded, the rest of the stored object is left intact */
+    private boolean savePartial(Datastore store, boolean saveNested, WriteConcern concern) {
+        if(saveNested)
+            throw new MongomanException("Nested objects of partially loaded objects cannot be saved: " + this.getClass().getName());
+        
+        Document doc = toDocument(this.dbExportMode);
+        Document set = new Document();
+        Document unset = new Document();
+        
+        diff("", doc, partial, set, unset);
+        
+        if(!set.isEmpty() || !unset.isEmpty())
+            store.update(kind, getKey(), set, unset, concern);
+        
+        partial = doc;
+        
+        return false;
+    }
+    
+    /* collects the paths that changed between the loaded and the current document */
+    private static void diff(String prefix, Document current, Document loaded, Document set, Document unset) {
+        for(Map.Entry<String, Object> e : current.entrySet()) {
+            String path = prefix + e.getKey();
+            Object value = e.getValue();
+            Object old = loaded.get(e.getKey());
+            
+            if(value instanceof Document && old instanceof Document)
+                diff(path + ".", (Document) value, (Document) old, set, unset);
+            else if(!loaded.containsKey(e.getKey()) || !Objects.equals(value, old))
+                set.put(path, value);
+        }
+        
+        for(String name : loaded.keySet()) {
+            if(!current.containsKey(name))
+                unset.put(prefix + name, "");
+        }
+    }
+    
     public boolean replace() {
         return replace(Datastore.fetchDefaultService(), null);
     }
@@ -491,6 +650,9 @@ public abstract class Base implements Serializable {
         if(shallow)
            throw new MongomanException("Shallow objects cannot be saved: " + this.getClass().getName());
         
+        if(partial != null)
+           throw new MongomanException("Partially loaded objects cannot be replaced: " + this.getClass().getName());
+        
         Document doc = toDocument(this.dbExportMode);
         
         return store.replace(kind, getKey(), doc, concern);
@@ -511,17 +673,21 @@ public abstract class Base implements Serializable {
      */
     public static void saveAll(Datastore store, List<? extends Base> list) {
         Map<String, List<Document>> map = new HashMap<>();
+        Map<String, List<Key>> keys = new HashMap<>();
         
         for(Base b : list) {
             String kind = b.kind;
-            if(!map.containsKey(kind))
+            if(!map.containsKey(kind)) {
                 map.put(kind, new ArrayList<>());
+                keys.put(kind, new ArrayList<>());
+            }
             
             map.get(kind).add(b.toDocument(b.dbExportMode));
+            keys.get(kind).add(b.getKey());
         }
         
         for(Map.Entry<String, List<Document>> e : map.entrySet())
-            store.saveMany(e.getKey(), e.getValue());
+            store.saveMany(e.getKey(), e.getValue(), keys.get(e.getKey()));
     }
     
     /**
@@ -692,7 +858,7 @@ public abstract class Base implements Serializable {
     }
 
     
-    private Object convertDBToField(Object value, TypeInfo type) {
+    static Object convertDBToField(Object value, TypeInfo type) {
         if(value == null)
             return null;
         
@@ -714,7 +880,7 @@ public abstract class Base implements Serializable {
         return type.isPrimitive() ? convertPrimitiveType(value, type.clazz) : value;
     }
     
-    private Map convertDBToMapField(Document map, TypeInfo type) {
+    private static Map convertDBToMapField(Document map, TypeInfo type) {
         TypeInfo tkey = type.getGenericArgument(0);
         TypeInfo tval = type.getGenericArgument(1);
         
@@ -730,7 +896,7 @@ public abstract class Base implements Serializable {
         return result;
     }
     
-    private Collection convertDBToCollectionField(List<Object> list, TypeInfo type) {        
+    private static Collection convertDBToCollectionField(List<Object> list, TypeInfo type) {        
         Collection<Object> result;
         
         if (type.isList())
@@ -747,7 +913,7 @@ public abstract class Base implements Serializable {
         return result;
     }
     
-    private Object convertDBToArrayField(List<Object> list, TypeInfo type) {
+    private static Object convertDBToArrayField(List<Object> list, TypeInfo type) {
         Class<?> componentType = type.getComponentType();
         Object array = Array.newInstance(componentType, list.size());
         
@@ -765,7 +931,7 @@ public abstract class Base implements Serializable {
     }
     
     /* Primitive types */
-    private void copyPrimitiveArray(Object[] src, Object dst) {
+    private static void copyPrimitiveArray(Object[] src, Object dst) {
         Class<?> type = dst.getClass().getComponentType();
         
         if(type == int.class) {
@@ -817,7 +983,7 @@ public abstract class Base implements Serializable {
         } 
     }
     
-    private Object convertPrimitiveType(Object value, Class<?> type) {
+    private static Object convertPrimitiveType(Object value, Class<?> type) {
         if(type == int.class)
             return ((Number)value).intValue();
         
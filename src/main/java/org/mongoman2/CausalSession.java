@@ -0,0 +1,97 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.MongoClient;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import java.util.List;
+import org.bson.Document;
+
+/**
+ * Causally consistent session bound to the thread that started it. While open, reads and 
+ * writes of this thread through datastores of the same client run in the session, so reads 
+ * from secondaries see the writes made earlier in the session
+ * 
+ * <pre>
+ * try(CausalSession session = datastore.startCausalSession()) {
+ *     car.save();
+ *     query.setReadPreference(ReadPreference.secondary()).execute();
+ * }
+ * </pre>
+ * 
+ * @author ahmed
+ */
+public class CausalSession implements AutoCloseable {
+    
+    private static final ThreadLocal<CausalSession> CURRENT = new ThreadLocal<>();
+    
+    private final MongoClient client;
+    private final ClientSession session;
+    
+    /* session this one replaced on the thread, restored on close */
+    private final CausalSession previous;
+
+    CausalSession(MongoClient client) {
+        this.client = client;
+        this.session = client.startSession(ClientSessionOptions.builder().causallyConsistent(true).build());
+        this.previous = CURRENT.get();
+        
+        CURRENT.set(this);
+    }
+    
+    public ClientSession getClientSession() {
+        return session;
+    }
+    
+    @Override
+    public void close() {
+        if(CURRENT.get() == this) {
+            if(previous != null)
+                CURRENT.set(previous);
+            else
+                CURRENT.remove();
+        }
+        
+        session.close();
+    }
+    
+    /* session of the current thread for the given client, null if none */
+    static ClientSession current(MongoClient client) {
+        CausalSession current = CURRENT.get();
+        
+        return current != null && current.client == client ? current.session : null;
+    }
+    
+    static <D> FindIterable<D> find(ClientSession session, MongoCollection<D> collection, Document filter) {
+        return session != null ? collection.find(session, filter) : collection.find(filter);
+    }
+    
+    static AggregateIterable<Document> aggregate(ClientSession session, MongoCollection<Document> collection, List<Document> pipeline) {
+        return session != null ? collection.aggregate(session, pipeline) : collection.aggregate(pipeline);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.bson.Document;
+
+/**
+ * Background listener on the change stream of a kind, used internally by 
+ * Datastore to keep its caches in sync with writes made by other clients
+ * 
+ * @author ahmed
+ */
+class ChangeFeed implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger(ChangeFeed.class.getName());
+
+    private final String kind;
+    private final MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor;
+    private final Consumer<ChangeStreamDocument<Document>> consumer;
+    private final Runnable onStop;
+    private volatile boolean closed;
+
+    /* onStop runs if the stream ends without being closed, writes by other clients are no longer seen after that */
+    ChangeFeed(Datastore datastore, String kind, Consumer<ChangeStreamDocument<Document>> consumer, Runnable onStop) {
+        this.kind = kind;
+        this.consumer = consumer;
+        this.onStop = onStop;
+        this.cursor = datastore.watch(kind).cursor();
+
+        Thread thread = new Thread(this, "mongoman-feed-" + kind);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while(!closed && cursor.hasNext())
+                consumer.accept(cursor.next());
+        } catch(RuntimeException ex) {
+            if(!closed)
+                LOGGER.log(Level.WARNING, "Change stream on " + kind + " stopped", ex);
+        } finally {
+            boolean stopped = !closed;
+            
+            close();
+            
+            if(stopped)
+                onStop.run();
+        }
+    }
+
+    void close() {
+        if(closed)
+            return;
+        
+        closed = true;
+        cursor.close();
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+}
@@ -25,7 +25,21 @@ package org.mongoman2;
 
 import org.mongoman2.annotations.Options;
 import org.mongoman2.annotations.Kind;
-import java.util.HashMap;
+import org.mongoman2.annotations.FullSave;
+import com.mongodb.ReadPreference;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
 
 /**
@@ -36,12 +50,21 @@ class ClassMap {
     protected static class classVariables {
         String kind;
         boolean shallow;
+        boolean keyAsId;
         boolean ignoreNull;
         boolean ignoreUnknownProperties;
+        
+        /* null to use the read preference of the datastore */
+        ReadPreference readPreference;
+        
+        /* mapping plan: the stored fields of the class along with their types */
+        Field[] fields;
+        TypeInfo[] types;
+        boolean[] fullSave;
     }
     
-    private final static HashMap<String, Class<? extends Base>> KIND_MAP  = new HashMap<>();
-    private final static HashMap<Class<? extends Base>, classVariables> CLASS_MAP = new HashMap<>();
+    private final static ConcurrentHashMap<String, Class<? extends Base>> KIND_MAP  = new ConcurrentHashMap<>();
+    private final static ConcurrentHashMap<Class<? extends Base>, classVariables> CLASS_MAP = new ConcurrentHashMap<>();
 
     private static classVariables extract(Class<? extends Base> clazz) {
         Kind kind = clazz.getDeclaredAnnotation(Kind.class);
@@ -52,11 +75,41 @@ class ClassMap {
         classVariables variables = new classVariables();
         variables.kind = kind.value();
         variables.shallow = kind.shallow();
+        variables.keyAsId = kind.keyAsId();
         
         Options options = clazz.getDeclaredAnnotation(Options.class);
         if(options != null) {
             variables.ignoreNull = options.ignoreNull();
             variables.ignoreUnknownProperties = options.ignoreUnknownProperties();
+            
+            if(!options.readPreference().isEmpty())
+                try {
+                    variables.readPreference = Datastore.readPreference(ReadPreference.valueOf(options.readPreference()), options.maxStalenessSeconds());
+                } catch(IllegalArgumentException ex) {
+                    throw new MongomanException("Invalid read preference for " + clazz + ": " + ex.getMessage());
+                }
+        }
+        
+        List<Field> fields = new ArrayList<>();
+        
+        for(Field field : clazz.getFields()) {
+            /* must not be static */
+            if(Modifier.isStatic(field.getModifiers()))
+                continue;
+            
+            if(Modifier.isFinal(field.getModifiers()))
+                field.setAccessible(true);
+            
+            fields.add(field);
+        }
+        
+        variables.fields = fields.toArray(new Field[0]);
+        variables.types = new TypeInfo[fields.size()];
+        variables.fullSave = new boolean[fields.size()];
+        
+        for(int i = 0; i < fields.size(); i++) {
+            variables.types[i] = new TypeInfo(fields.get(i));
+            variables.fullSave[i] = fields.get(i).isAnnotationPresent(FullSave.class);
         }
         
         return variables;
@@ -105,4 +158,87 @@ class ClassMap {
         
         return variables;
     }
+    
+    /**
+     * Finds and registers all classes with @Kind in the given packages and their sub packages
+     * 
+     * @param packages
+     * @return the registered classes
+     */
+    protected static List<Class<? extends Base>> scan(String... packages) {
+        ClassLoader loader = Thread.currentThread().getContextClassLoader();
+        
+        if(loader == null)
+            loader = ClassMap.class.getClassLoader();
+        
+        List<String> names = new ArrayList<>();
+        
+        try {
+            for(String pkg : packages) {
+                String path = pkg.replace('.', '/');
+                Enumeration<URL> resources = loader.getResources(path);
+                
+                while(resources.hasMoreElements()) {
+                    URL url = resources.nextElement();
+                    
+                    if("file".equals(url.getProtocol()))
+                        listClasses(new File(URLDecoder.decode(url.getPath(), "UTF-8")), pkg, names);
+                    else if("jar".equals(url.getProtocol()))
+                        listClasses(((JarURLConnection) url.openConnection()).getJarFile(), path, names);
+                }
+            }
+        } catch(IOException ex) {
+            throw new MongomanException(ex);
+        }
+        
+        List<Class<? extends Base>> result = new ArrayList<>();
+        
+        for(String name : names) {
+            Class<?> clazz;
+            
+            try {
+                clazz = Class.forName(name, false, loader);
+            } catch(ClassNotFoundException | LinkageError ex) {
+                continue;
+            }
+            
+            if(!Base.class.isAssignableFrom(clazz) || !clazz.isAnnotationPresent(Kind.class) || 
+               Modifier.isAbstract(clazz.getModifiers()) || result.contains(clazz))
+                continue;
+            
+            Class<? extends Base> kind = clazz.asSubclass(Base.class);
+            
+            getVariables(kind);
+            result.add(kind);
+        }
+        
+        return result;
+    }
+    
+    private static void listClasses(File directory, String pkg, List<String> names) {
+        File[] files = directory.listFiles();
+        
+        if(files == null)
+            return;
+        
+        for(File file : files) {
+            String name = file.getName();
+            
+            if(file.isDirectory())
+                listClasses(file, pkg + "." + name, names);
+            else if(name.endsWith(".class"))
+                names.add(pkg + "." + name.substring(0, name.length() - 6));
+        }
+    }
+    
+    private static void listClasses(JarFile jar, String path, List<String> names) {
+        Enumeration<JarEntry> entries = jar.entries();
+        
+        while(entries.hasMoreElements()) {
+            String name = entries.nextElement().getName();
+            
+            if(name.startsWith(path + "/") && name.endsWith(".class"))
+                names.add(name.substring(0, name.length() - 6).replace('/', '.'));
+        }
+    }
 }
@@ -23,32 +23,58 @@
  */
 package org.mongoman2;
 
+import com.mongodb.ServerCursor;
 import com.mongodb.client.MongoCursor;
 import org.bson.Document;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  *
  * @author ahmed
  * @param <T>
  */
-public class Cursor<T extends Base> {
+public class Cursor<T extends Base> implements Iterable<T>, AutoCloseable {
 
     MongoCursor<Document> cursor;
     Datastore datastore;
     Class<? extends Base> clazz;
     boolean loadNested;
+    boolean partial;
     
     // Store the last returned document to emulate the curr() behavior
     private T curr;
     private int numSeen;
+    
+    /* number of documents handed to each parallel split of stream() */
+    private int splitSize;
+    
+    /* nextBatch does not preallocate for more than this many objects */
+    private final static int MAX_BATCH_CAPACITY = 1000;
+    
+    /* sort of a paged query and the last document returned, null when not paged */
+    private Document pageSort;
+    private Document last;
+    private String pageToken;
+    
+    /* set by cancel() from any thread */
+    private volatile boolean cancelled;
         
-    protected Cursor(MongoCursor<Document> cursor, Class<? extends Base> clazz, Datastore datastore, boolean loadNested) {
+    protected Cursor(MongoCursor<Document> cursor, Class<? extends Base> clazz, Datastore datastore, boolean loadNested, boolean partial) {
         this.cursor = cursor;
         this.clazz = clazz;
         this.datastore = datastore;
         this.loadNested = loadNested;
+        this.partial = partial;
         this.numSeen = 0;
+        this.splitSize = 1000;
     }
 
     /* Returns the element the cursor is at */
@@ -58,28 +84,142 @@ public class Cursor<T extends Base> {
 
     /* Checks if there is another object available */
     public boolean hasNext() {
-        return cursor.hasNext();
+        checkCancelled();
+        
+        try {
+            return cursor.hasNext();
+        } catch(RuntimeException ex) {
+            throw failure(ex);
+        }
     }
 
     /* Non-blocking check for tailable cursors to see if another object is available */
     public T tryNext() {
-        Document next = cursor.tryNext();
+        checkCancelled();
         
-        if(next != null) {
-            curr = createInstance(clazz, next);
-            numSeen++;
-            return curr;
+        Document next;
+        
+        try {
+            next = cursor.tryNext();
+        } catch(RuntimeException ex) {
+            throw failure(ex);
         }
         
+        if(next != null)
+            return advance(createInstance(clazz, remember(next)));
+        
         return null;
     }
 
     /* Returns the object the cursor is at and moves the cursor ahead by one .. throws exception if next object doesnt exist */
     public T next() {
-        Document next = cursor.next();        
-        curr = createInstance(clazz, next);
+        checkCancelled();
+        
+        Document next;
+        
+        try {
+            next = cursor.next();
+        } catch(RuntimeException ex) {
+            throw failure(ex);
+        }
+        
+        return advance(createInstance(clazz, remember(next)));
+    }
+    
+    /**
+     * Stops the query from any thread: kills its cursors on the server so the server stops
+     * working on it right away. The thread reading the cursor gets a MongomanException
+     * on its next call, or right away if it is waiting for the server
+     */
+    public void cancel() {
+        cancelled = true;
+        
+        for(MongoCursor<Document> open : serverCursors()) {
+            ServerCursor serverCursor = open.getServerCursor();
+            
+            if(serverCursor != null)
+                datastore.killCursor(ClassMap.getKind(clazz), serverCursor);
+        }
+    }
+    
+    public boolean isCancelled() {
+        return cancelled;
+    }
+    
+    /* cursors read by this cursor that may be open on the server */
+    List<MongoCursor<Document>> serverCursors() {
+        return cursor != null ? Collections.singletonList(cursor) : Collections.emptyList();
+    }
+    
+    void checkCancelled() {
+        if(cancelled) {
+            close();
+            throw new MongomanException("Query was cancelled");
+        }
+    }
+    
+    /* errors caused by killing the cursors of a cancelled query are reported as the cancellation */
+    RuntimeException failure(RuntimeException ex) {
+        if(!cancelled)
+            return ex;
+        
+        close();
+        return new MongomanException("Query was cancelled");
+    }
+    
+    private Document remember(Document next) {
+        if(pageSort != null)
+            last = next;
+        
+        return next;
+    }
+    
+    /* called by Query.after, token is the one the page started from */
+    void page(Document sort, String token) {
+        this.pageSort = sort;
+        this.pageToken = token;
+    }
+    
+    /**
+     * Token resuming a paged query (Query.after) right after the last object returned by next().
+     * Returns the token the page started from if nothing was returned
+     * 
+     * @return opaque token to pass to Query.after
+     */
+    public String continuationToken() {
+        if(pageSort == null)
+            throw new MongomanException("Continuation tokens are only available for paged queries, see Query.after");
+        
+        if(last != null) {
+            pageToken = PageToken.encode(pageSort, last);
+            last = null;
+        }
+        
+        return pageToken;
+    }
+    
+    /* moves curr() to the given object */
+    T advance(T item) {
+        curr = item;
         numSeen++;
-        return curr;
+        return item;
+    }
+
+    /**
+     * Returns the next max objects, or fewer if the cursor is exhausted first.
+     * Blocks until all of them are read, which takes more than one round trip 
+     * when max is larger than the batch size of the query (Query.setBatch)
+     * 
+     * @param max maximum number of objects to return
+     * @return the next objects, empty if the cursor is exhausted
+     */
+    public List<T> nextBatch(int max) {
+        List<T> result = new ArrayList<>(Math.min(max, MAX_BATCH_CAPACITY));
+        
+        while(result.size() < max && hasNext())
+            result.add(next());
+        
+        return result;
     }
 
     /* Returns the number of objects through which the cursor has iterated */
@@ -89,16 +229,81 @@ public class Cursor<T extends Base> {
 
     /* MongoCursor does not have one() method, handle accordingly */
     public T one() {
-        if(cursor.hasNext()) 
+        if(hasNext()) 
             return next();
         
         return null;
     }
 
+    /* Closes the cursor on the server, cursors are closed automatically once exhausted */
+    @Override
+    public void close() {
+        cursor.close();
+    }
+
     public MongoCursor<Document> getMongoCursor() {
         return cursor;
     }
 
+    /* Single use iterator over the remaining objects */
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return Cursor.this.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return Cursor.this.next();
+            }
+        };
+    }
+
+    /**
+     * Ordered spliterator over the remaining objects, splits hand a chunk of raw
+     * documents to other threads so decoding runs in parallel.
+     * Paged cursors (Query.after) are not split so that continuationToken() stays
+     * right after the last object returned, parallel streams process them sequentially
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new CursorSpliterator();
+    }
+
+    /* Stream over the remaining objects, closing the stream closes the cursor */
+    public Stream<T> stream() {
+        return stream(false);
+    }
+
+    public Stream<T> stream(boolean parallel) {
+        return StreamSupport.stream(spliterator(), parallel).onClose(this::close);
+    }
+
+    /* Sets the number of documents handed to each parallel split */
+    public Cursor<T> setSplitSize(int splitSize) {
+        this.splitSize = splitSize;
+        return this;
+    }
+
+    /* Next item for a parallel split, Cursors that decode on their own return decoded objects */
+    Object fetch() {
+        checkCancelled();
+        
+        try {
+            Document next = cursor.next();
+            numSeen++;
+            return next;
+        } catch(RuntimeException ex) {
+            throw failure(ex);
+        }
+    }
+
+    T decode(Object fetched) {
+        return createInstance(clazz, (Document) fetched);
+    }
+
     private T createInstance(Class<? extends Base> clazz, Document data) {
         if(data == null)
             return null;
@@ -106,7 +311,103 @@ public class Cursor<T extends Base> {
         T instance = T.createInstance(clazz, data);
         if(loadNested)
             instance.loadNested(datastore, new HashMap<>());
+        
+        /* objects loaded with a projection must not overwrite the fields they did not load */
+        if(partial)
+            instance.markPartial();
 
         return instance;
     }
+
+    private class CursorSpliterator implements Spliterator<T> {
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if(!hasNext())
+                return false;
+            
+            action.accept(next());
+            return true;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            /* split documents bypass next(), the continuation token would not follow them */
+            if(pageSort != null)
+                return null;
+            
+            Object[] chunk = new Object[splitSize];
+            int size = 0;
+            
+            while(size < splitSize && hasNext())
+                chunk[size++] = fetch();
+            
+            if(size == 0)
+                return null;
+            
+            return new ChunkSpliterator(chunk, size);
+        }
+
+        /* the number of remaining documents is not known without a count on the server, so not SIZED */
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.NONNULL;
+        }
+    }
+
+    /* decodes a chunk of fetched documents on the thread processing the split */
+    private class ChunkSpliterator implements Spliterator<T> {
+        private final Object[] chunk;
+        private final int end;
+        private int index;
+
+        ChunkSpliterator(Object[] chunk, int end) {
+            this(chunk, 0, end);
+        }
+
+        private ChunkSpliterator(Object[] chunk, int index, int end) {
+            this.chunk = chunk;
+            this.index = index;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if(index >= end)
+                return false;
+            
+            Object fetched = chunk[index];
+            chunk[index++] = null;
+            
+            action.accept(decode(fetched));
+            return true;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int mid = (index + end) >>> 1;
+            
+            if(mid <= index)
+                return null;
+            
+            Spliterator<T> prefix = new ChunkSpliterator(chunk, index, mid);
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.SIZED | Spliterator.SUBSIZED;
+        }
+    }
 }
@@ -24,6 +24,12 @@
 package org.mongoman2;
 
 import com.mongodb.MongoClient;
+import com.mongodb.MongoClientOptions;
+import com.mongodb.MongoCredential;
+import com.mongodb.ReadPreference;
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.TaggableReadPreference;
 import com.mongodb.WriteConcern;
 import com.mongodb.client.*;
 import com.mongodb.client.model.*;
@@ -31,73 +37,205 @@ import com.mongodb.client.result.UpdateResult;
 import org.bson.Document;
 import org.bson.types.ObjectId;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.bson.BsonValue;
+import com.mongodb.MongoException;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
 
 /**
  *
  * @author ahmed
  */
 public class Datastore {
+    private static final Logger LOGGER = Logger.getLogger(Datastore.class.getName());
     
     private final MongoDatabase db;
     public final String name;
     private final MongoClient mongoClient;
 
-    private final HashMap<String, MongoCollection<Document>> collections;
+    /* collections of the kinds accessed so far, each kind is initialized under its own lock */
+    private final ConcurrentHashMap<String, KindCollection> collections;
+    private final ConcurrentHashMap<String, Object> collectionLocks;
+
+    /* per kind negative lookup filters, pending ones are still being built */
+    private final ConcurrentHashMap<String, KeyFilter> keyFilters;
+    private final ConcurrentHashMap<String, KeyFilter> pendingKeyFilters;
+    private final ConcurrentHashMap<String, ChangeFeed> keyFeeds;
+    
+    /* per kind query result caches, dropped on every write to the kind */
+    private final ConcurrentHashMap<String, QueryCache> queryCaches;
+    private final ConcurrentHashMap<String, ChangeFeed> queryFeeds;
+    
+    private volatile QueryGuard queryGuard;
+    
+    /* read preference of queries and loads, kinds and queries can override it */
+    private volatile ReadPreference readPreference;
+    
+    private volatile HedgedReads hedgedReads;
+    
+    /* server side time budgets, 0 for none */
+    private volatile long maxTimeMS;
+    private volatile long maxAwaitTimeMS;
+    
+    /* direct connections to the servers of cancelled cursors, a cursor can only be killed on the server that owns it */
+    private final ConcurrentHashMap<ServerAddress, MongoClient> serverClients;
+    
+    /* index synchronization of each kind accessed so far */
+    private final ConcurrentHashMap<String, CompletableFuture<IndexSyncResult>> indexSyncs;
+    private volatile IndexSyncMode indexSyncMode;
+    private volatile IndexSyncListener indexSyncListener;
+    private ExecutorService indexSyncExecutor;
+    
+    /* runs the background fetching and decoding of pipelined cursors, created on first use unless set */
+    private ExecutorService decodeExecutor;
+    private boolean ownsDecodeExecutor;
+    
+    /* fingerprints of the kinds whose indexes are in sync, loaded once from the schema collection */
+    private volatile boolean schemaFingerprints;
+    private Map<String, String> fingerprints;
 
     private final static String KEY_INDEX_NAME = "__key_";
-    private final static String UNIQUE_INDEX_PREFIX = "__unique_";
-    private final static String REGULAR_INDEX_PREFIX = "__regular_";
+    private final static String SCHEMA_COLLECTION = "__mongoman_schema";
 
     private final static Document _ID_PROJECTION = new Document("_id", 1);
+    
+    private final static int GET_ALL_CHUNK = 1000;
+    
+    private final static int WARM_UP_THREADS = 8;
+    private final static int WARM_UP_ROUNDS = 1000;
+    
+    /* time budget of hedged requests when neither the read nor the datastore has one */
+    private final static long DEFAULT_HEDGE_MAX_TIME_MS = 10000;
 
     public Datastore(MongoClient mongoClient, String dbname) {
         this.name = dbname;
         this.mongoClient = mongoClient;
         this.db = mongoClient.getDatabase(name);
-        this.collections = new HashMap<>();
+        this.collections = new ConcurrentHashMap<>();
+        this.collectionLocks = new ConcurrentHashMap<>();
+        this.keyFilters = new ConcurrentHashMap<>();
+        this.pendingKeyFilters = new ConcurrentHashMap<>();
+        this.keyFeeds = new ConcurrentHashMap<>();
+        this.queryCaches = new ConcurrentHashMap<>();
+        this.queryFeeds = new ConcurrentHashMap<>();
+        this.serverClients = new ConcurrentHashMap<>();
+        this.indexSyncs = new ConcurrentHashMap<>();
+        this.indexSyncMode = IndexSyncMode.BLOCKING;
+        this.indexSyncListener = new IndexSyncListener() {};
     }
 
     /* get item */
     protected Document get(Key key) {
-        return getCollection(key.kind).find(key.filterData).limit(1).first();
+        if(!mightExist(key))
+            return null;
+        
+        return hedgedRead(key.kind, null, maxTimeMS, (session, collection, maxTime) -> CausalSession.find(session, collection, key.lookup).maxTime(maxTime, TimeUnit.MILLISECONDS).limit(1).first());
+    }
+    protected Document get(Key key, Document projection) {
+        if(!mightExist(key))
+            return null;
+        
+        return hedgedRead(key.kind, null, maxTimeMS, (session, collection, maxTime) -> CausalSession.find(session, collection, key.lookup).maxTime(maxTime, TimeUnit.MILLISECONDS).projection(projection).limit(1).first());
+    }
+    /* get items by key, querying in chunks of GET_ALL_CHUNK keys */
+    protected List<Document> getAll(String kind, Collection<Key> keys) {
+        List<Document> result = new ArrayList<>();
+        List<Key> chunk = new ArrayList<>();
+        
+        for(Key key : keys) {
+            if(key.isEmpty() || !mightExist(key))
+                continue;
+            
+            chunk.add(key);
+            
+            if(chunk.size() == GET_ALL_CHUNK) {
+                getAll(kind, chunk, result);
+                chunk.clear();
+            }
+        }
+        
+        if(!chunk.isEmpty())
+            getAll(kind, chunk, result);
+        
+        return result;
     }
-    protected Document get(String kind, ObjectId id) {
-        return getCollection(kind).find(new Document("_id", id)).limit(1).first();
+    
+    private void getAll(String kind, List<Key> keys, List<Document> result) {
+        boolean byId = keys.get(0).id != null;
+        List<Document> lookups = new ArrayList<>(keys.size());
+        
+        for(Key key : keys)
+            lookups.add(byId ? key.id : key.filterData);
+        
+        Document filter = byId ? new Document("_id", new Document("$in", lookups)) : new Document("$or", lookups);
+        
+        CausalSession.find(session(), readCollection(kind, null), filter).maxTime(maxTimeMS, TimeUnit.MILLISECONDS).into(result);
+    }
+    
+    protected Document get(String kind, Object id) {
+        return CausalSession.find(session(), readCollection(kind, null), new Document("_id", id))
+                .maxTime(maxTimeMS, TimeUnit.MILLISECONDS)
+                .limit(1)
+                .first();
     }
     
     protected boolean exists(Key key) {
-        return getCollection(key.kind)
-                .find(key.filterData)
+        if(!mightExist(key))
+            return false;
+        
+        return CausalSession.find(session(), readCollection(key.kind, null), key.lookup)
+                .maxTime(maxTimeMS, TimeUnit.MILLISECONDS)
                 .projection(_ID_PROJECTION)
                 .limit(1)
                 .iterator()
                 .hasNext();
     }
 
-    protected ObjectId getObjectId(Key key) {
-        Document doc = getCollection(key.kind)
-                .find(key.filterData)
+    protected Object getId(Key key) {
+        if(!mightExist(key))
+            return null;
+        
+        Document doc = CausalSession.find(session(), readCollection(key.kind, null), key.lookup)
+                .maxTime(maxTimeMS, TimeUnit.MILLISECONDS)
                 .projection(_ID_PROJECTION)
                 .limit(1)
                 .first();
 
-        return (doc != null) ? doc.getObjectId("_id") : null;
+        return (doc != null) ? doc.get("_id") : null;
     }
 
-    protected ObjectId save(String kind, Key key, Document data, WriteConcern concern) {
-        MongoCollection<Document> collection = getCollection(kind).withWriteConcern(concern != null ? concern : WriteConcern.ACKNOWLEDGED);
+    protected Object save(String kind, Key key, Document data, WriteConcern concern) {
+        MongoCollection<Document> collection = kindCollection(kind).forWrite(concern);
+        ClientSession session = session();
         
-        // If there is no _id field in the data, generate a new ObjectId and set it
+        // If there is no _id field in the data, use the key derived id or generate a new ObjectId and set it
         if (!data.containsKey("_id")) {
-            ObjectId newId = new ObjectId();
+            Object newId = key.id != null ? key.id : new ObjectId();
             data.put("_id", newId);
-            collection.insertOne(data);
+            keySaved(kind, key);
+            
+            if(session != null)
+                collection.insertOne(session, data);
+            else
+                collection.insertOne(data);
+            invalidateQueryCache(kind);
             
             return newId;
         }
 
-        UpdateResult result = collection.replaceOne(key.filterData, data);
+        UpdateResult result = session != null ? collection.replaceOne(session, key.lookup, data) : collection.replaceOne(key.lookup, data);
+        invalidateQueryCache(kind);
         
         /* this should never happend .. if it did then bug */
         if(result.getUpsertedId() != null)
@@ -107,9 +245,23 @@ public class Datastore {
     }
     
     protected boolean update(String kind, Key key, Document data, WriteConcern concern) {
-        MongoCollection<Document> collection = getCollection(kind).withWriteConcern(concern != null ? concern : WriteConcern.ACKNOWLEDGED);
+        return update(kind, key, data, new Document(), concern);
+    }
+    
+    protected boolean update(String kind, Key key, Document set, Document unset, WriteConcern concern) {
+        MongoCollection<Document> collection = kindCollection(kind).forWrite(concern);
+        ClientSession session = session();
+        
+        Document update = new Document();
+        
+        if(!set.isEmpty())
+            update.put("$set", set);
+        
+        if(!unset.isEmpty())
+            update.put("$unset", unset);
 
-        UpdateResult result = collection.updateOne(key.filterData, new Document("$set", data));
+        UpdateResult result = session != null ? collection.updateOne(session, key.lookup, update) : collection.updateOne(key.lookup, update);
+        invalidateQueryCache(kind);
         
         /* this should never happend .. if it did then bug */
         if(result.getUpsertedId() != null)
@@ -119,9 +271,11 @@ public class Datastore {
     }
     
     protected boolean replace(String kind, Key key, Document data, WriteConcern concern) {
-        MongoCollection<Document> collection = getCollection(kind).withWriteConcern(concern != null ? concern : WriteConcern.ACKNOWLEDGED);
+        MongoCollection<Document> collection = kindCollection(kind).forWrite(concern);
+        ClientSession session = session();
         
-        UpdateResult result = collection.replaceOne(key.filterData, data);
+        UpdateResult result = session != null ? collection.replaceOne(session, key.lookup, data) : collection.replaceOne(key.lookup, data);
+        invalidateQueryCache(kind);
         
         /* this should never happend .. if it did then bug */
         if(result.getUpsertedId() != null)
@@ -130,8 +284,19 @@ public class Datastore {
         return result.getModifiedCount() == 1;
     }
 
-    protected void saveMany(String kind, List<Document> data) {
-        getCollection(kind).insertMany(data);
+    protected void saveMany(String kind, List<Document> data, List<Key> keys) {
+        for(Key key : keys)
+            keySaved(kind, key);
+        
+        MongoCollection<Document> collection = getCollection(kind);
+        ClientSession session = session();
+        
+        if(session != null)
+            collection.insertMany(session, data);
+        else
+            collection.insertMany(data);
+        
+        invalidateQueryCache(kind);
     }
 
     /* delete item using its key */
@@ -139,20 +304,126 @@ public class Datastore {
         if(key.isEmpty())
             throw new MongomanException("Trying to delete item using empty key");
 
-        return getCollection(key.kind).deleteOne(key.filterData).getDeletedCount() > 0;
+        boolean deleted = deleteOne(key.kind, key.lookup);
+        invalidateQueryCache(key.kind);
+        
+        return deleted;
     }
 
     /* delete item using its objectid */
-    protected boolean delete(String kind, ObjectId id) {
+    protected boolean delete(String kind, Object id) {
         Document obj = new Document("_id", id);
-        return getCollection(kind).deleteOne(obj).getDeletedCount() > 0;
+        boolean deleted = deleteOne(kind, obj);
+        invalidateQueryCache(kind);
+        
+        return deleted;
+    }
+    
+    private boolean deleteOne(String kind, Document lookup) {
+        MongoCollection<Document> collection = getCollection(kind);
+        ClientSession session = session();
+        
+        return (session != null ? collection.deleteOne(session, lookup) : collection.deleteOne(lookup)).getDeletedCount() > 0;
     }
 
     public MongoCollection<Document> getCollection(String name) {
-        if(!collections.containsKey(name))
-            initCollection(name);
+        return kindCollection(name).collection;
+    }
+    
+    /* collection of the kind for reads, with the given read preference, or the one of the kind or of the datastore */
+    MongoCollection<Document> readCollection(String kind, ReadPreference preference) {
+        return kindCollection(kind).forRead(readPreference(kind, preference));
+    }
+    
+    private ReadPreference readPreference(String kind, ReadPreference preference) {
+        if(preference == null) {
+            Class<? extends Base> clazz = ClassMap.getClass(kind);
+            
+            if(clazz != null)
+                preference = ClassMap.getVariables(clazz).readPreference;
+        }
+        
+        return preference != null ? preference : readPreference;
+    }
+    
+    /* a read run by hedgedRead */
+    interface HedgeableRead<R> {
+        
+        /* runs the read on the collection, in the session if not null, within the server time budget (0 for none) */
+        R apply(ClientSession session, MongoCollection<Document> collection, long maxTimeMS);
+    }
+    
+    /**
+     * Runs a read of the kind, hedged with a second request if hedged reads are enabled and the
+     * read preference is not primary. Reads in a causal session are not hedged, the session 
+     * cannot be shared between requests. Hedged requests without a time budget get the one
+     * of the hedging, so the losing request does not run on the server indefinitely
+     * 
+     * @param <R>
+     * @param kind
+     * @param preference read preference of the read, null for the one of the kind or of the datastore
+     * @param maxTimeMS server time budget of the read, 0 for none
+     * @param read
+     * @return 
+     */
+    <R> R hedgedRead(String kind, ReadPreference preference, long maxTimeMS, HedgeableRead<R> read) {
+        HedgedReads hedging = hedgedReads;
+        ClientSession session = session();
+        
+        preference = readPreference(kind, preference);
+        MongoCollection<Document> collection = kindCollection(kind).forRead(preference);
+        
+        if(hedging == null || session != null || !isHedged(preference))
+            return read.apply(session, collection, maxTimeMS);
+        
+        long maxTime = maxTimeMS > 0 ? maxTimeMS : hedging.maxTimeMillis;
+        
+        return hedging.read(collection, kindCollection(kind).forRead(hedgePreference(preference)), (c) -> read.apply(null, c, maxTime));
+    }
+    
+    /* only reads that may be served by secondaries are hedged, primary reads stay on the primary */
+    private static boolean isHedged(ReadPreference preference) {
+        return preference != null && preference.isSlaveOk();
+    }
+    
+    /**
+     * Secondary reads are hedged with their own read preference so the hedge never goes to
+     * the primary. Other reads are hedged on the nearest member matching their tags and
+     * staleness, a secondary being acceptable to primaryPreferred reads when the primary is slow
+     */
+    private static ReadPreference hedgePreference(ReadPreference preference) {
+        String mode = preference.getName();
+        
+        if(mode.equals(ReadPreference.secondary().getName()) || mode.equals(ReadPreference.secondaryPreferred().getName()))
+            return preference;
+        
+        TaggableReadPreference taggable = (TaggableReadPreference) preference;
+        Long staleness = taggable.getMaxStaleness(TimeUnit.SECONDS);
+        
+        if(staleness == null)
+            return ReadPreference.nearest(taggable.getTagSetList());
+        
+        return ReadPreference.nearest(taggable.getTagSetList(), staleness, TimeUnit.SECONDS);
+    }
+    
+    KindCollection kindCollection(String name) {
+        KindCollection collection = collections.get(name);
+        
+        return collection != null ? collection : initCollection(name);
+    }
 
-        return collections.get(name);
+    /* true if the collection of the kind was created with a default collation, looked up once per kind */
+    boolean hasDefaultCollation(String kind) {
+        KindCollection collection = kindCollection(kind);
+        
+        if(collection.collated == null) {
+            Document info = db.listCollections().filter(new Document("name", kind)).first();
+            Document options = info != null ? info.get("options", Document.class) : null;
+            
+            collection.collated = options != null && options.containsKey("collation");
+        }
+        
+        return collection.collated;
     }
 
     public Set<String> getCollections() {
@@ -161,6 +432,11 @@ public class Datastore {
 
     public void dropCollection(String name) {
         getCollection(name).drop();
+        invalidateQueryCache(name);
+        dropFingerprint(name);
+        
+        /* the next access creates the collection and its indexes again */
+        collections.remove(name);
     }
 
     public void dropCollection(Class<? extends Base> clazz) {
@@ -172,8 +448,253 @@ public class Datastore {
     }
 
     public void shutdown() {
+        for(ChangeFeed feed : keyFeeds.values())
+            feed.close();
+        
+        for(ChangeFeed feed : queryFeeds.values())
+            feed.close();
+        
+        for(MongoClient client : serverClients.values())
+            client.close();
+        
+        synchronized(this) {
+            if(indexSyncExecutor != null)
+                indexSyncExecutor.shutdownNow();
+            
+            if(hedgedReads != null)
+                hedgedReads.shutdown();
+            
+            if(decodeExecutor != null && ownsDecodeExecutor)
+                decodeExecutor.shutdownNow();
+        }
+        
         mongoClient.close();
     }
+
+    /**
+     * Keeps a bloom filter of all keys of the kind so that get / exists calls 
+     * for keys that do not exist return without querying the database.
+     * The filter is built by a key only scan of the collection, then kept up to
+     * date by local saves and by the change stream of the collection.
+     * Keys saved by other clients would otherwise be reported missing, so the
+     * server must support change streams (replica set or sharded cluster) and 
+     * the filter is dropped if the change stream stops
+     * 
+     * @param clazz the kind to filter
+     * @param expectedKeys expected number of keys in the collection
+     * @param falsePositiveRate probability of a missing key going to the database
+     * @throws MongomanException if the collection cannot be watched
+     */
+    public void enableKeyFilter(Class<? extends Base> clazz, long expectedKeys, double falsePositiveRate) {
+        String kind = ClassMap.getKind(clazz);
+        
+        ChangeFeed feed = keyFeeds.get(kind);
+        
+        if(feed == null || feed.isClosed()) {
+            try {
+                feed = new ChangeFeed(this, kind, (change) -> keyChanged(clazz, change), () -> keyFeedStopped(kind));
+                keyFeeds.put(kind, feed);
+            } catch(MongoException ex) {
+                throw new MongomanException("Key filter on " + kind + " needs the change stream of the collection", ex);
+            }
+        }
+        
+        buildKeyFilter(clazz, new KeyFilter(expectedKeys, falsePositiveRate));
+    }
+    
+    /* keys saved by other clients can no longer be tracked */
+    private void keyFeedStopped(String kind) {
+        ChangeFeed feed = keyFeeds.get(kind);
+        
+        /* the kind may have been enabled again with a new feed meanwhile */
+        if(feed == null || !feed.isClosed() || !keyFeeds.remove(kind, feed))
+            return;
+        
+        LOGGER.log(Level.WARNING, "Key filter on {0} disabled, its change stream stopped", kind);
+        keyFilters.remove(kind);
+    }
+
+    /**
+     * Rebuilds the key filter of the kind from the database, dropping keys of
+     * deleted items which the filter cannot forget on its own
+     * 
+     * @param clazz the kind to rebuild
+     */
+    public void rebuildKeyFilter(Class<? extends Base> clazz) {
+        KeyFilter current = keyFilters.get(ClassMap.getKind(clazz));
+        
+        if(current == null)
+            throw new MongomanException("Key filter not enabled for " + clazz.getName());
+        
+        buildKeyFilter(clazz, new KeyFilter(current.expectedKeys, current.falsePositiveRate));
+    }
+
+    public void disableKeyFilter(Class<? extends Base> clazz) {
+        String kind = ClassMap.getKind(clazz);
+        
+        keyFilters.remove(kind);
+        
+        ChangeFeed feed = keyFeeds.remove(kind);
+        if(feed != null)
+            feed.close();
+    }
+    
+    private void buildKeyFilter(Class<? extends Base> clazz, KeyFilter filter) {
+        String kind = ClassMap.getKind(clazz);
+        
+        /* keys saved while scanning go to the pending filter as well */
+        pendingKeyFilters.put(kind, filter);
+        
+        try {
+            Document projection = Base.getKeyProjection(clazz);
+        
+            try(MongoCursor<Document> cursor = getCollection(kind).find().projection(projection).iterator()) {
+                while(cursor.hasNext())
+                    filter.add(Key.fromDocument(clazz, cursor.next()));
+            }
+            
+            keyFilters.put(kind, filter);
+        } finally {
+            pendingKeyFilters.remove(kind, filter);
+        }
+    }
+    
+    private void keyChanged(Class<? extends Base> clazz, ChangeStreamDocument<Document> change) {
+        OperationType type = change.getOperationType();
+        
+        if(type != OperationType.INSERT && type != OperationType.REPLACE)
+            return;
+        
+        Document document = change.getFullDocument();
+        
+        if(document != null)
+            keySaved(ClassMap.getKind(clazz), Key.fromDocument(clazz, document));
+    }
+    
+    private void keySaved(String kind, Key key) {
+        KeyFilter filter = keyFilters.get(kind);
+        if(filter != null)
+            filter.add(key);
+        
+        filter = pendingKeyFilters.get(kind);
+        if(filter != null)
+            filter.add(key);
+    }
+    
+    /**
+     * Checks the key against the key filter of its kind without querying the database
+     * 
+     * @param key the key to check
+     * @return false if the key definitely does not exist, true if it might exist
+     *         or if the kind has no key filter
+     */
+    public boolean mightExist(Key key) {
+        KeyFilter filter = keyFilters.get(key.kind);
+        
+        return filter == null || filter.mightContain(key);
+    }
+    
+    /**
+     * Caches the results of queries on the kind, identical queries (same filter, sort,
+     * projection, skip and limit) are then served from memory until the kind is written.
+     * Writes through this datastore and writes seen on the change stream of the collection
+     * drop all cached results of the kind. Writes by other clients would otherwise serve
+     * stale results, so the server must support change streams (replica set or sharded 
+     * cluster) and the cache is dropped if the change stream stops.
+     * Queries whose read preference allows secondaries neither use nor fill the cache
+     * 
+     * @param clazz the kind to cache
+     * @param maxEntries maximum number of cached queries, least recently used are dropped first
+     * @param maxResultBytes results larger than this are not cached
+     * @throws MongomanException if the collection cannot be watched
+     */
+    public void enableQueryCache(Class<? extends Base> clazz, int maxEntries, long maxResultBytes) {
+        String kind = ClassMap.getKind(clazz);
+        QueryCache cache = new QueryCache(maxEntries, maxResultBytes);
+        
+        ChangeFeed feed = queryFeeds.get(kind);
+        
+        if(feed == null || feed.isClosed()) {
+            try {
+                feed = new ChangeFeed(this, kind, (change) -> invalidateQueryCache(kind), () -> queryFeedStopped(kind));
+                queryFeeds.put(kind, feed);
+            } catch(MongoException ex) {
+                throw new MongomanException("Query cache on " + kind + " needs the change stream of the collection", ex);
+            }
+        }
+        
+        queryCaches.put(kind, cache);
+    }
+    
+    /* writes by other clients can no longer be seen */
+    private void queryFeedStopped(String kind) {
+        ChangeFeed feed = queryFeeds.get(kind);
+        
+        /* the kind may have been enabled again with a new feed meanwhile */
+        if(feed == null || !feed.isClosed() || !queryFeeds.remove(kind, feed))
+            return;
+        
+        LOGGER.log(Level.WARNING, "Query cache on {0} disabled, its change stream stopped", kind);
+        queryCaches.remove(kind);
+    }
+
+    public void disableQueryCache(Class<? extends Base> clazz) {
+        String kind = ClassMap.getKind(clazz);
+        
+        queryCaches.remove(kind);
+        
+        ChangeFeed feed = queryFeeds.remove(kind);
+        if(feed != null)
+            feed.close();
+    }
+    
+    /* Drops the cached results of the kind, for writes made outside of mongoman */
+    public void invalidateQueryCache(Class<? extends Base> clazz) {
+        invalidateQueryCache(ClassMap.getKind(clazz));
+    }
+    
+    private void invalidateQueryCache(String kind) {
+        QueryCache cache = queryCaches.get(kind);
+        
+        if(cache != null)
+            cache.invalidate();
+    }
+    
+    QueryCache getQueryCache(String kind) {
+        return queryCaches.get(kind);
+    }
+    
+    /* Counters of the query cache of the kind, null if the cache is not enabled */
+    public QueryCacheStats getQueryCacheStats(Class<? extends Base> clazz) {
+        QueryCache cache = queryCaches.get(ClassMap.getKind(clazz));
+        
+        return cache != null ? cache.getStats() : null;
+    }
+    
+    /**
+     * Explains queries of new shapes (filter, sort and projection regardless of values)
+     * before running them and logs the ones examining more than maxDocsPerResult 
+     * documents per returned document. Explaining runs the query once more on the server
+     * 
+     * @param maxDocsPerResult
+     * @param sampleRate fraction of new shapes to explain, between 0 and 1
+     * @param reject true to throw a MongomanException instead of running flagged queries
+     */
+    public void enableQueryGuard(double maxDocsPerResult, double sampleRate, boolean reject) {
+        queryGuard = new QueryGuard(maxDocsPerResult, sampleRate, reject);
+    }
+    
+    public void disableQueryGuard() {
+        queryGuard = null;
+    }
+    
+    QueryGuard getQueryGuard() {
+        return queryGuard;
+    }
+    
+    Document runCommand(Document command) {
+        return db.runCommand(command);
+    }
     
     /* Static Functions */
     private static Datastore DEFAULT_SERVICE;
@@ -194,23 +715,434 @@ public class Datastore {
     }
 
     /**
-     * TODO: Remove debugging prints
+     * Prepares all kinds found in the given packages before serving requests: registers 
+     * their classes, builds their mapping plans, initializes their collections in parallel
+     * and runs a few rounds of encoding / decoding so the first requests see steady latency
+     * 
+     * @param packages packages to scan, sub packages included
+     * @return the kinds found
      */
-    private synchronized void initCollection(String name) {
-        if(collections.containsKey(name))
+    public List<Class<? extends Base>> warmUp(String... packages) {
+        List<Class<? extends Base>> kinds = ClassMap.scan(packages);
+        
+        if(kinds.isEmpty())
+            return kinds;
+        
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(kinds.size(), WARM_UP_THREADS));
+        List<Future<?>> tasks = new ArrayList<>();
+        
+        for(Class<? extends Base> clazz : kinds)
+            tasks.add(executor.submit(() -> {
+                getCollection(ClassMap.getKind(clazz));
+                warmUpCodec(clazz);
+            }));
+        
+        try {
+            for(Future<?> task : tasks)
+                task.get();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MongomanException(ex);
+        } catch(ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new MongomanException(ex);
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        return kinds;
+    }
+    
+    private static void warmUpCodec(Class<? extends Base> clazz) {
+        Base item;
+        
+        try {
+            item = Base.createInstance(clazz);
+        } catch(MongomanException ex) {
+            LOGGER.log(Level.FINE, "Skipping codec warm up of {0}: {1}", new Object[] {clazz.getName(), ex.getMessage()});
             return;
-
-        MongoCollection<Document> collection;
-
-        if(!db.listCollectionNames().into(new ArrayList<>()).contains(name))
+        }
+        
+        for(int i = 0; i < WARM_UP_ROUNDS; i++)
+            Base.createInstance(clazz, item.toDocument(ExportMode.DB));
+    }
+    
+    /**
+     * Default read preference of queries and loads, kinds and queries can override it.
+     * null reads with the preference of the client
+     * 
+     * @param preference 
+     */
+    public void setReadPreference(ReadPreference preference) {
+        this.readPreference = preference;
+    }
+    
+    /**
+     * Default read preference of queries and loads, skipping secondaries that lag 
+     * more than the given number of seconds
+     * 
+     * @param preference
+     * @param maxStalenessSeconds 
+     */
+    public void setReadPreference(ReadPreference preference, long maxStalenessSeconds) {
+        this.readPreference = readPreference(preference, maxStalenessSeconds);
+    }
+    
+    public ReadPreference getReadPreference() {
+        return readPreference;
+    }
+    
+    /* the read preference with the given max staleness, unchanged when 0 */
+    static ReadPreference readPreference(ReadPreference preference, long maxStalenessSeconds) {
+        if(maxStalenessSeconds <= 0)
+            return preference;
+        
+        if(!(preference instanceof TaggableReadPreference))
+            throw new MongomanException("Max staleness is not supported for " + preference.getName() + " reads");
+        
+        return ReadPreference.valueOf(preference.getName(), ((TaggableReadPreference) preference).getTagSetList(), 
+                                      maxStalenessSeconds, TimeUnit.SECONDS);
+    }
+    
+    public void enableHedgedReads(double percentile, long minDelayMillis) {
+        enableHedgedReads(percentile, minDelayMillis, DEFAULT_HEDGE_MAX_TIME_MS);
+    }
+    
+    /**
+     * Hedges loads and small queries: when a read takes longer than the given percentile
+     * of the recent read latencies, the same read is sent to another member and the first
+     * response wins. Only reads with a non primary read preference are hedged, primary 
+     * reads always go to the primary, and the hedges of secondary reads go to secondaries.
+     * The driver selects the member of each request among the eligible ones, so the hedge
+     * may go to the same member as the first request, always when only one is eligible.
+     * The losing request cannot be stopped on the server, so hedged requests that have no
+     * time budget (see setMaxTime) are given maxTimeMillis
+     * 
+     * @param percentile of the recent latencies after which a read is hedged, ie: 95
+     * @param minDelayMillis lower bound of the delay before hedging
+     * @param maxTimeMillis server time budget of hedged requests without one
+     */
+    public synchronized void enableHedgedReads(double percentile, long minDelayMillis, long maxTimeMillis) {
+        HedgedReads previous = hedgedReads;
+        hedgedReads = new HedgedReads(percentile, minDelayMillis, maxTimeMillis);
+        
+        if(previous != null)
+            previous.shutdown();
+    }
+    
+    public synchronized void disableHedgedReads() {
+        if(hedgedReads != null)
+            hedgedReads.shutdown();
+        
+        hedgedReads = null;
+    }
+    
+    /* Hedging counters since hedged reads were enabled, null if disabled */
+    public HedgeStats getHedgeStats() {
+        HedgedReads hedging = hedgedReads;
+        
+        return hedging != null ? hedging.getStats() : null;
+    }
+    
+    boolean isHedging(String kind, ReadPreference preference) {
+        return hedgedReads != null && session() == null && isHedged(readPreference(kind, preference));
+    }
+    
+    /**
+     * Default time budget in milliseconds of loads and queries on the server, the server
+     * aborts operations running longer. Queries can set their own. 0 for no limit
+     * 
+     * @param maxTimeMS 
+     */
+    public void setMaxTime(long maxTimeMS) {
+        this.maxTimeMS = maxTimeMS;
+    }
+    
+    public long getMaxTime() {
+        return maxTimeMS;
+    }
+    
+    /**
+     * Longest time in milliseconds the server waits for new changes before answering
+     * a change stream (Watch, key filters, query caches), lets closed streams stop promptly.
+     * 0 for the server default
+     * 
+     * @param maxAwaitTimeMS 
+     */
+    public void setMaxAwaitTime(long maxAwaitTimeMS) {
+        this.maxAwaitTimeMS = maxAwaitTimeMS;
+    }
+    
+    /* change stream of the kind with the await time of the datastore */
+    ChangeStreamIterable<Document> watch(String kind) {
+        ChangeStreamIterable<Document> stream = getCollection(kind).watch();
+        
+        if(maxAwaitTimeMS > 0)
+            stream.maxAwaitTime(maxAwaitTimeMS, TimeUnit.MILLISECONDS);
+        
+        return stream;
+    }
+    
+    /* kills a cursor of the kind on the server that owns it, which may be a secondary */
+    void killCursor(String kind, ServerCursor cursor) {
+        try {
+            serverClient(cursor.getAddress()).getDatabase(name)
+                                             .runCommand(new Document("killCursors", kind).append("cursors", Arrays.asList(cursor.getId())), 
+                                                         ReadPreference.primaryPreferred());
+        } catch(MongoException ex) {
+            LOGGER.log(Level.FINE, "Failed to kill cursor {0} of {1}: {2}", new Object[] {cursor.getId(), kind, ex.getMessage()});
+        }
+    }
+    
+    /* direct connection to one server, without replica set discovery so commands are not routed to the primary */
+    private MongoClient serverClient(ServerAddress address) {
+        return serverClients.computeIfAbsent(address, (a) -> {
+            MongoClientOptions options = MongoClientOptions.builder(mongoClient.getMongoClientOptions())
+                                                           .requiredReplicaSetName(null)
+                                                           .build();
+            
+            MongoCredential credential = mongoClient.getCredential();
+            
+            return credential != null ? new MongoClient(a, credential, options) : new MongoClient(a, options);
+        });
+    }
+    
+    /**
+     * Starts a causally consistent session on the current thread, reads of the thread 
+     * see its earlier writes even when they are served by secondaries.
+     * Must be closed by the same thread
+     * 
+     * @return 
+     */
+    public CausalSession startCausalSession() {
+        return new CausalSession(mongoClient);
+    }
+    
+    /* causal session of the current thread, null if none */
+    ClientSession session() {
+        return CausalSession.current(mongoClient);
+    }
+    
+    /**
+     * Sets how indexes are synchronized for kinds accessed from now on, 
+     * kinds already accessed are not synchronized again
+     * 
+     * @param mode
+     * @param listener notified of each change and of completion, may be null
+     */
+    public void setIndexSync(IndexSyncMode mode, IndexSyncListener listener) {
+        this.indexSyncMode = mode;
+        this.indexSyncListener = listener != null ? listener : new IndexSyncListener() {};
+    }
+    
+    /**
+     * Index synchronization of the kind, started by the first access to the kind
+     * 
+     * @param clazz
+     * @return completes once the indexes are synchronized, or the changes planned for a dry run
+     */
+    public CompletableFuture<IndexSyncResult> getIndexSync(Class<? extends Base> clazz) {
+        String kind = ClassMap.getKind(clazz);
+        
+        getCollection(kind);
+        
+        return indexSyncs.get(kind);
+    }
+    
+    private KindCollection initCollection(String name) {
+        synchronized(collectionLocks.computeIfAbsent(name, k -> new Object())) {
+            KindCollection result = collections.get(name);
+            
+            if(result == null) {
+                result = createCollection(name);
+                collections.put(name, result);
+            }
+            
+            return result;
+        }
+    }
+    
+    private KindCollection createCollection(String name) {
+        Class<? extends Base> clazz = ClassMap.getClass(name);
+        
+        /* an unchanged fingerprint means the collection and its indexes were set up by an earlier run */
+        String fingerprint = schemaFingerprints && clazz != null ? IndexSpec.fingerprint(clazz) : null;
+        boolean known = fingerprint != null && fingerprint.equals(storedFingerprints().get(name));
+        
+        /* look up this collection only, listing all names is slow on large databases */
+        if(!known && db.listCollections().filter(new Document("name", name)).first() == null)
              db.createCollection(name);
 
-        collection = db.getCollection(name);
-        ListIndexesIterable<Document> currentIndexes = collection.listIndexes();
+        MongoCollection<Document> collection = db.getCollection(name);
+        
+        IndexSyncMode mode = indexSyncMode;
+        IndexSyncListener listener = indexSyncListener;
+        CompletableFuture<IndexSyncResult> sync = new CompletableFuture<>();
+        
+        indexSyncs.put(name, sync);
+        
+        if(mode == IndexSyncMode.BLOCKING) {
+            syncIndexes(name, collection, clazz, fingerprint, known, mode, listener, sync);
+            
+            try {
+                sync.join();
+            } catch(CompletionException ex) {
+                throw (RuntimeException) ex.getCause();
+            }
+        } else
+            indexSyncExecutor().execute(() -> syncIndexes(name, collection, clazz, fingerprint, known, mode, listener, sync));
+
+        return new KindCollection(collection);
+    }
+    
+    /**
+     * Stores a fingerprint of the key and index declarations of each kind once its indexes
+     * are synchronized, later runs skip the synchronization of kinds whose declarations did 
+     * not change. All fingerprints are read in one query on first access to any kind.
+     * Indexes changed or dropped by hand are not detected, see clearSchemaFingerprints
+     * 
+     * @param enabled 
+     */
+    public void setSchemaFingerprints(boolean enabled) {
+        this.schemaFingerprints = enabled;
+    }
+    
+    /* Forgets all stored fingerprints, kinds are synchronized again on their next initialization */
+    public synchronized void clearSchemaFingerprints() {
+        db.getCollection(SCHEMA_COLLECTION).deleteMany(new Document());
+        fingerprints = new ConcurrentHashMap<>();
+    }
+    
+    private synchronized Map<String, String> storedFingerprints() {
+        if(fingerprints == null) {
+            fingerprints = new ConcurrentHashMap<>();
+            
+            for(Document document : db.getCollection(SCHEMA_COLLECTION).find())
+                fingerprints.put(document.getString("_id"), document.getString("fingerprint"));
+        }
+        
+        return fingerprints;
+    }
+    
+    private void storeFingerprint(String name, String fingerprint) {
+        db.getCollection(SCHEMA_COLLECTION).replaceOne(new Document("_id", name), 
+                                                       new Document("_id", name).append("fingerprint", fingerprint).append("updated", new Date()), 
+                                                       new ReplaceOptions().upsert(true));
+        storedFingerprints().put(name, fingerprint);
+    }
+    
+    /* deleted even when fingerprints are disabled here, datastores using them would skip setting up the dropped collection */
+    private void dropFingerprint(String name) {
+        db.getCollection(SCHEMA_COLLECTION).deleteOne(new Document("_id", name));
+        
+        synchronized(this) {
+            if(fingerprints != null)
+                fingerprints.remove(name);
+        }
+    }
+    
+    /**
+     * Executor running the background fetching and decoding of queries using decode threads
+     * (Query.setDecodeThreads), the read ahead of prefetching queries (Query.setPrefetch)
+     * and the range readers of parallel queries (Query.executeParallel).
+     * Tasks never wait for the consumer or for each other, so a bounded executor only
+     * limits how much runs at once; tasks it rejects run on the calling thread.
+     * The datastore does not shut down executors set here
+     * 
+     * @param executor 
+     */
+    public synchronized void setDecodeExecutor(ExecutorService executor) {
+        if(decodeExecutor != null && ownsDecodeExecutor)
+            decodeExecutor.shutdown();
+        
+        this.decodeExecutor = executor;
+        this.ownsDecodeExecutor = false;
+    }
+    
+    synchronized ExecutorService decodeExecutor() {
+        if(decodeExecutor == null) {
+            AtomicInteger count = new AtomicInteger();
+            
+            decodeExecutor = Executors.newCachedThreadPool((runnable) -> {
+                Thread thread = new Thread(runnable, "mongoman-decode-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            ownsDecodeExecutor = true;
+        }
+        
+        return decodeExecutor;
+    }
+    
+    private synchronized ExecutorService indexSyncExecutor() {
+        if(indexSyncExecutor == null) {
+            indexSyncExecutor = Executors.newSingleThreadExecutor((runnable) -> {
+                Thread thread = new Thread(runnable, "mongoman-index-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        
+        return indexSyncExecutor;
+    }
+    
+    private void syncIndexes(String name, MongoCollection<Document> collection, Class<? extends Base> clazz, String fingerprint, 
+                             boolean known, IndexSyncMode mode, IndexSyncListener listener, CompletableFuture<IndexSyncResult> sync) {
+        boolean dryRun = mode == IndexSyncMode.DRY_RUN;
+        
+        try {
+            List<IndexChange> changes = clazz != null && !(known && !dryRun) ? planIndexes(collection, clazz) : new ArrayList<>();
+            
+            for(IndexChange change : changes) {
+                if(!dryRun) {
+                    LOGGER.log(Level.INFO, "Index change on {0}: {1}", new Object[] { name, change });
+                    
+                    if(change.getType() == IndexChange.Type.DROP)
+                        collection.dropIndex(change.getName());
+                    else
+                        collection.createIndex(change.getKeys(), change.options(mode == IndexSyncMode.BACKGROUND));
+                }
+                
+                listener.onChange(name, change);
+            }
+            
+            if(fingerprint != null && !known && !dryRun)
+                storeFingerprint(name, fingerprint);
+            
+            IndexSyncResult result = new IndexSyncResult(name, changes, dryRun);
+            listener.onComplete(result);
+            sync.complete(result);
+        } catch(RuntimeException ex) {
+            LOGGER.log(Level.WARNING, "Index synchronization of " + name + " failed", ex);
+            listener.onError(name, ex);
+            sync.completeExceptionally(ex);
+        }
+    }
+    
+    /**
+     * Refuses to switch Kind.keyAsId on a collection holding objects saved in the other mode,
+     * their _id does not match their key so they could no longer be found by key.
+     * A key index shows objects saved without keyAsId, an object _id shows objects saved with it
+     */
+    private void checkKeyMode(MongoCollection<Document> collection, Class<? extends Base> clazz, Document currentKeyIndex) {
+        boolean keyAsId = ClassMap.getVariables(clazz).keyAsId;
+        
+        if(keyAsId && currentKeyIndex != null && KEY_INDEX_NAME.equals(currentKeyIndex.getString("name")))
+            throw new MongomanException("Kind " + collection.getNamespace().getCollectionName() + " holds objects saved without keyAsId, migrate them before enabling it");
+        
+        if(!keyAsId && currentKeyIndex == null && 
+           collection.find(new Document("_id", new Document("$type", "object"))).projection(_ID_PROJECTION).first() != null)
+            throw new MongomanException("Kind " + collection.getNamespace().getCollectionName() + " holds objects saved with keyAsId, migrate them before disabling it");
+    }
+    
+    /* changes bringing the indexes of the collection in line with the declarations of the class */
+    private List<IndexChange> planIndexes(MongoCollection<Document> collection, Class<? extends Base> clazz) {
+        List<IndexChange> changes = new ArrayList<>();
+        List<Document> currentIndexes = collection.listIndexes().into(new ArrayList<>());
 
-        /* setup key index */
+        /* setup key index, kinds using the key as _id do not need one */
         Document currentKeyIndex = null;
-        Document keyIndex = Base.getKeyFields(ClassMap.getClass(name));
+        Document keyIndex = ClassMap.getVariables(clazz).keyAsId ? new Document() : Base.getKeyFields(clazz);
 
         for (Document index : currentIndexes) {
             /* first try by index name */
@@ -226,51 +1158,44 @@ public class Datastore {
             }
         }
 
+        checkKeyMode(collection, clazz, currentKeyIndex);
+        
         if(currentKeyIndex != null) {
             if(!keyIndex.equals(currentKeyIndex.get("key")) || !currentKeyIndex.getString("name").equals(KEY_INDEX_NAME)) {
-                System.out.println("Dropping key index");
-                collection.dropIndex(currentKeyIndex.getString("name"));
+                changes.add(IndexChange.drop(currentKeyIndex.getString("name"), currentKeyIndex.get("key", Document.class)));
                 currentKeyIndex = null;
             }
         }
 
-        if(currentKeyIndex == null && !keyIndex.isEmpty()) {
-            System.out.println("Setting key index");
-            collection.createIndex(keyIndex, new IndexOptions().name(KEY_INDEX_NAME).unique(true));
-        }
+        if(currentKeyIndex == null && !keyIndex.isEmpty())
+            changes.add(IndexChange.create(keyIndex, new IndexOptions().name(KEY_INDEX_NAME).unique(true)));
 
-        /* setup unique and regular indexes */
-        HashSet<String> existingIndexes = new HashSet<>();
+        /* setup declared indexes, rebuilding the ones whose definition changed */
+        Map<String, Document> existingIndexes = new HashMap<>();
         
         for (Document index : currentIndexes) {
             String indexName = index.getString("name");
-            if(indexName.startsWith(UNIQUE_INDEX_PREFIX) || indexName.startsWith(REGULAR_INDEX_PREFIX)) {
-                existingIndexes.add(indexName);
+            if(IndexSpec.isManaged(indexName)) {
+                existingIndexes.put(indexName, index);
             }
         }
 
-        Map<String, Boolean> indexFields = Base.getIndexFields(ClassMap.getClass(name));
-        
-        for (Map.Entry<String, Boolean> entry : indexFields.entrySet()) {
-            String fieldName = entry.getKey();
-            boolean isUnique = entry.getValue();
-            String indexName = (isUnique ? UNIQUE_INDEX_PREFIX : REGULAR_INDEX_PREFIX) + fieldName;
-
-            if(!existingIndexes.contains(indexName)) {
-                System.out.println("Adding index: " + indexName);
-                Document index = new Document(fieldName, 1);
-                collection.createIndex(index, new IndexOptions().name(indexName).unique(isUnique));
-            }
-
-            existingIndexes.remove(indexName);
-        }
-
-        for (String indexName : existingIndexes) {
-            System.out.println("Removing index: " + indexName);
-            collection.dropIndex(indexName);
+        for (IndexSpec spec : IndexSpec.forClass(clazz)) {
+            Document existing = existingIndexes.remove(spec.name);
+            
+            if(existing != null && spec.matches(existing))
+                continue;
+            
+            if(existing != null)
+                changes.add(IndexChange.drop(spec.name, existing.get("key", Document.class)));
+            
+            changes.add(IndexChange.create(spec.keys, spec.options()));
         }
 
-        collections.put(name, collection);
+        for (Document index : existingIndexes.values())
+            changes.add(IndexChange.drop(index.getString("name"), index.get("key", Document.class)));
+        
+        return changes;
     }
 
 }
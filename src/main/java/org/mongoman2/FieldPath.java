@@ -0,0 +1,170 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import org.mongoman2.annotations.FullSave;
+
+/**
+ * Field path of a class resolved once through reflection and cached per class.
+ * Invalid paths are cached as well and fail with the same message every time
+ * 
+ * @author ahmed
+ */
+class FieldPath {
+    
+    /* held by each class itself so that unloaded classes are not kept alive */
+    private static final ClassValue<ConcurrentHashMap<String, FieldPath>> CACHE = new ClassValue<ConcurrentHashMap<String, FieldPath>>() {
+        @Override
+        protected ConcurrentHashMap<String, FieldPath> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+    
+    final String path;
+    
+    /* field of each segment of the path */
+    final Field[] fields;
+    
+    /* type stored at the end of the path, the element type for collections, maps and arrays */
+    final Class<?> valueType;
+    
+    /* why the path is invalid, the cause is kept when it came from reflection */
+    private final String error;
+    private final Exception cause;
+
+    private FieldPath(String path, Field[] fields, Class<?> valueType, String error, Exception cause) {
+        this.path = path;
+        this.fields = fields;
+        this.valueType = valueType;
+        this.error = error;
+        this.cause = cause;
+    }
+    
+    /* Resolves the path for the class, throws if it does not exist or crosses an object that is not fully saved */
+    static FieldPath resolve(Class<?> clazz, String path) {
+        FieldPath result = CACHE.get(clazz).computeIfAbsent(path, p -> compute(clazz, p));
+        
+        if(result.cause != null)
+            throw new MongomanException(result.cause);
+        
+        if(result.error != null)
+            throw new MongomanException(result.error);
+        
+        return result;
+    }
+    
+    private static FieldPath compute(Class<?> currentClass, String path) {
+        String[] parts = path.split("\\."); // Split the field path by dot for nested fields
+        Field[] fields = new Field[parts.length];
+        boolean isFullSaved = true; // Top-level class fields are fully saved by default
+        
+        /* Loop through each part of the nested path */
+        for (int i = 0; i < parts.length; i++) {
+            String part = parts[i];
+            Field currentField;
+            
+            try {
+                currentField = currentClass.getField(part);
+            } catch (NoSuchFieldException | SecurityException ex) {
+                return new FieldPath(path, null, null, null, ex);
+            }
+            
+            /* If the class is not fully saved and the field is not a key field, the path is invalid */
+            if (!isFullSaved && !Base.isKeyField(currentField))
+                return new FieldPath(path, null, null, "Field '" + part + "' is invalid because the object is not fully saved.", null);
+
+            /* Determine the type of the current field to move to the next class level */
+            TypeInfo typeInfo = new TypeInfo(currentField);
+            if (typeInfo.isCollection()) {
+                currentClass = typeInfo.getGenericArgument(0).clazz; // Get the element type for collections (List/Set)
+            } else if (typeInfo.isMap()) {
+                currentClass = typeInfo.getGenericArgument(1).clazz; // Get the value type for Map<K, V>
+            } else if (typeInfo.isArray()) {
+                currentClass = typeInfo.getComponentType(); // Get the component type for arrays
+            } else {
+                currentClass = currentField.getType(); // Move to the next level for non-collection, non-map fields
+            }
+            
+            fields[i] = currentField;
+            
+            /* Update the fully saved status for the next level */
+            isFullSaved = currentField.isAnnotationPresent(FullSave.class);
+        }
+        
+        return new FieldPath(path, fields, currentClass, null, null);
+    }
+    
+    /**
+     * Converts a filter value using the type of the path, enum names are checked against
+     * the enum and keys of referenced objects are replaced by their filter data.
+     * Other values are converted the same way as Filter.convertValue
+     * 
+     * @param value
+     * @return 
+     */
+    Object convert(Object value) {
+        if (value instanceof Collection) {
+            List<Object> result = new ArrayList<>();
+            
+            for (Object o : (Collection<?>) value)
+                result.add(convertElement(o));
+            
+            return result;
+        }
+        
+        if (value != null && value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            List<Object> result = new ArrayList<>(length);
+            
+            for (int i = 0; i < length; i++)
+                result.add(convertElement(Array.get(value, i)));
+            
+            return result;
+        }
+        
+        return convertElement(value);
+    }
+    
+    private Object convertElement(Object value) {
+        if (value instanceof String && valueType.isEnum()) {
+            for (Object constant : valueType.getEnumConstants()) {
+                if (((Enum<?>) constant).name().equals(value))
+                    return value;
+            }
+            
+            throw new MongomanException("Invalid value '" + value + "' for " + valueType.getName() + " at " + path);
+        }
+        
+        if (value instanceof Key)
+            return ((Key) value).filterData;
+        
+        return Filter.convertValue(value);
+    }
+}
@@ -24,12 +24,10 @@
 package org.mongoman2;
 
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import org.bson.Document;
-import org.mongoman2.annotations.FullSave;
 
 /**
  *
@@ -47,17 +45,21 @@ public class Filter {
     Filter(String property, Query.FilterOperator op, Object value) {
         this.op = op;
         this.property = property;
-
+        this.value = convertValue(value);
+    }
+    
+    /* converts a filter value to what is stored in the database, also used when binding prepared queries */
+    static Object convertValue(Object value) {
         if(value instanceof Base) {
-            this.value = ((Base) value).getKey().filterData;
+            return ((Base) value).getKey().filterData;
         } else if(value instanceof Enum) {
-            this.value = ((Enum) value).name();  // Single enum to string
+            return ((Enum) value).name();  // Single enum to string
         } else if (value instanceof Collection) {
-            this.value = handleCollection((Collection) value);  // Handle collections (including enums)
-        } else if (value.getClass().isArray()) {
-            this.value = handleArray(value);  // Handle arrays (including enums)
+            return handleCollection((Collection) value);  // Handle collections (including enums)
+        } else if (value != null && value.getClass().isArray()) {
+            return handleArray(value);  // Handle arrays (including enums)
         } else {
-            this.value = value;  // Primitive types or other objects
+            return value;  // Primitive types or other objects
         }
     }
     
@@ -77,7 +79,7 @@ public class Filter {
         return toDocument().toJson();
     }
 
-    private Object handleCollection(Collection<?> collection) {
+    private static Object handleCollection(Collection<?> collection) {
         if (collection.isEmpty())
             return collection;
 
@@ -93,7 +95,7 @@ public class Filter {
         return collection;  // Non-enum collections can be returned as-is
     }
 
-    private Object handleArray(Object array) {
+    private static Object handleArray(Object array) {
         if (array instanceof Enum[]) {
             List<String> enumNames = new ArrayList<>();
             for (Enum e : (Enum[]) array) {
@@ -141,37 +143,6 @@ public class Filter {
     }
     
     protected static void validateFieldPath(String property, Class<?> currentClass) {
-        String[] parts = property.split("\\."); // Split the field path by dot for nested fields
-        boolean isFullSaved = true; // Top-level class (TestClass) fields are fully saved by default
-        
-        /* Loop through each part of the nested path */
-        for (String part : parts) {
-            /* Get the field in the current class, this will throw NoSuchFieldException if the field doesn't exist */
-                Field currentField;
-                try {
-                    currentField = currentClass.getField(part);
-                } catch (NoSuchFieldException | SecurityException ex) {
-                    throw new MongomanException(ex);
-                }
-            
-            /* If the class is not fully saved and the field is not a key field, throw an exception */
-            if (!isFullSaved && !Base.isKeyField(currentField))
-                throw new MongomanException("Field '" + part + "' is invalid because the object is not fully saved.");
-
-            /* Determine the type of the current field to move to the next class level */
-            TypeInfo typeInfo = new TypeInfo(currentField);
-            if (typeInfo.isCollection()) {
-                currentClass = typeInfo.getGenericArgument(0).clazz; // Get the element type for collections (List/Set)
-            } else if (typeInfo.isMap()) {
-                currentClass = typeInfo.getGenericArgument(1).clazz; // Get the value type for Map<K, V>
-            } else if (typeInfo.isArray()) {
-                currentClass = typeInfo.getComponentType(); // Get the component type for arrays
-            } else {
-                currentClass = currentField.getType(); // Move to the next level for non-collection, non-map fields
-            }
-            
-            /* Update the fully saved status for the next level */
-            isFullSaved = currentField.isAnnotationPresent(FullSave.class); // Check if this field is marked with @FullSave
-        }
+        FieldPath.resolve(currentClass, property);
     }
 }
@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+/**
+ * Counters of the hedged reads of a datastore since they were enabled
+ * 
+ * @author ahmed
+ */
+public class HedgeStats {
+    
+    private final long reads;
+    private final long hedged;
+    private final long wins;
+    private final long delayMillis;
+
+    HedgeStats(long reads, long hedged, long wins, long delayMillis) {
+        this.reads = reads;
+        this.hedged = hedged;
+        this.wins = wins;
+        this.delayMillis = delayMillis;
+    }
+
+    /* Number of reads that could be hedged */
+    public long getReads() {
+        return reads;
+    }
+
+    /* Number of reads for which a second request was sent */
+    public long getHedged() {
+        return hedged;
+    }
+
+    /* Number of hedged reads answered first by the second request */
+    public long getWins() {
+        return wins;
+    }
+
+    /* Current delay before sending a second request, -1 until enough latencies are known */
+    public long getDelayMillis() {
+        return delayMillis;
+    }
+
+    /* Share of reads that were hedged */
+    public double getHedgeRate() {
+        return reads > 0 ? (double) hedged / reads : 0;
+    }
+
+    /* Share of hedged reads won by the second request */
+    public double getWinRate() {
+        return hedged > 0 ? (double) wins / hedged : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "reads: " + reads + ", hedged: " + hedged + ", wins: " + wins + ", delay: " + delayMillis + "ms";
+    }
+}
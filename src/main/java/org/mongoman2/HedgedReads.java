@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import com.mongodb.client.MongoCollection;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.bson.Document;
+
+/**
+ * Sends a second request when a read takes longer than a percentile of the recent read
+ * latencies, the first response wins and the other one is cancelled. The driver selects
+ * the member of each request, which may be the same for both.
+ * Cancelling does not stop a request already sent, the server keeps running it until its
+ * time budget runs out, so hedged requests always run with one
+ * 
+ * @author ahmed
+ */
+class HedgedReads {
+    
+    private final double percentile;
+    private final long minDelayNanos;
+    
+    /* server time budget of hedged requests that have none of their own */
+    final long maxTimeMillis;
+    
+    /* latencies of the most recent reads */
+    private final long[] samples;
+    private int sampled;
+    
+    /* Long.MAX_VALUE until enough latencies are known */
+    private volatile long delayNanos;
+    
+    private final AtomicLong reads;
+    private final AtomicLong hedged;
+    private final AtomicLong wins;
+    
+    private final ThreadPoolExecutor executor;
+    
+    private final static int SAMPLES = 1024;
+    private final static int MIN_SAMPLES = 32;
+    
+    /* the delay is recomputed once every this many reads */
+    private final static int UPDATE_INTERVAL = 64;
+    
+    /* reads beyond this many concurrent requests run on the calling thread without hedging */
+    private final static int MAX_THREADS = 64;
+
+    HedgedReads(double percentile, long minDelayMillis, long maxTimeMillis) {
+        if(percentile <= 0 || percentile >= 100)
+            throw new MongomanException("Hedging percentile must be between 0 and 100 exclusive");
+        
+        if(maxTimeMillis <= 0)
+            throw new MongomanException("Hedged reads need a positive time budget");
+        
+        this.percentile = percentile;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(minDelayMillis);
+        this.maxTimeMillis = maxTimeMillis;
+        this.samples = new long[SAMPLES];
+        this.delayNanos = Long.MAX_VALUE;
+        this.reads = new AtomicLong();
+        this.hedged = new AtomicLong();
+        this.wins = new AtomicLong();
+        this.executor = new ThreadPoolExecutor(0, MAX_THREADS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), (runnable) -> {
+            Thread thread = new Thread(runnable, "mongoman-hedged-read");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Runs the read on the first collection, and on the second one as well if the first 
+     * did not answer within the delay. A failed request leaves the answer to the other one
+     * 
+     * @param <R>
+     * @param first collection with the read preference of the read
+     * @param second collection with the read preference of the hedge
+     * @param read
+     * @return the first successful response
+     */
+    <R> R read(MongoCollection<Document> first, MongoCollection<Document> second, Function<MongoCollection<Document>, R> read) {
+        long start = System.nanoTime();
+        long delay = delayNanos;
+        
+        reads.incrementAndGet();
+        
+        CompletionService<R> completion = new ExecutorCompletionService<>(executor);
+        
+        /* not enough latencies known yet to tell a slow read, or all threads busy */
+        Future<R> attempt = delay != Long.MAX_VALUE ? submit(completion, () -> read.apply(first)) : null;
+        Future<R> hedge = null;
+        
+        if(attempt == null) {
+            R result = read.apply(first);
+            record(System.nanoTime() - start);
+            
+            return result;
+        }
+        
+        try {
+            Future<R> done = completion.poll(delay, TimeUnit.NANOSECONDS);
+            
+            if(done == null) {
+                hedge = submit(completion, () -> read.apply(second));
+                
+                if(hedge != null)
+                    hedged.incrementAndGet();
+                
+                done = completion.take();
+                
+                if(hedge != null && failed(done))
+                    done = completion.take();
+                
+                if(done == hedge)
+                    wins.incrementAndGet();
+            }
+            
+            R result = done.get();
+            record(System.nanoTime() - start);
+            
+            return result;
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MongomanException(ex);
+        } catch(ExecutionException ex) {
+            if(ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            
+            throw new MongomanException(ex);
+        } finally {
+            attempt.cancel(true);
+            
+            if(hedge != null)
+                hedge.cancel(true);
+        }
+    }
+    
+    /* null when all threads are busy */
+    private static <R> Future<R> submit(CompletionService<R> completion, Callable<R> task) {
+        try {
+            return completion.submit(task);
+        } catch(RejectedExecutionException ex) {
+            return null;
+        }
+    }
+    
+    private static boolean failed(Future<?> future) throws InterruptedException {
+        try {
+            future.get();
+            return false;
+        } catch(ExecutionException ex) {
+            return true;
+        }
+    }
+    
+    private synchronized void record(long latency) {
+        samples[sampled % SAMPLES] = latency;
+        sampled++;
+        
+        if(sampled < MIN_SAMPLES || sampled % UPDATE_INTERVAL != 0 && sampled != MIN_SAMPLES)
+            return;
+        
+        long[] sorted = Arrays.copyOf(samples, Math.min(sampled, SAMPLES));
+        Arrays.sort(sorted);
+        
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        delayNanos = Math.max(minDelayNanos, sorted[Math.max(index, 0)]);
+    }
+    
+    HedgeStats getStats() {
+        long delay = delayNanos;
+        
+        return new HedgeStats(reads.get(), hedged.get(), wins.get(), delay == Long.MAX_VALUE ? -1 : TimeUnit.NANOSECONDS.toMillis(delay));
+    }
+    
+    void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import com.mongodb.client.model.IndexOptions;
+import org.bson.Document;
+
+/**
+ * Index created or dropped when synchronizing the indexes of a kind
+ * 
+ * @author ahmed
+ */
+public class IndexChange {
+    
+    public static enum Type {
+        CREATE, DROP
+    }
+    
+    private final Type type;
+    private final String name;
+    private final Document keys;
+    final IndexOptions options;
+
+    private IndexChange(Type type, String name, Document keys, IndexOptions options) {
+        this.type = type;
+        this.name = name;
+        this.keys = keys;
+        this.options = options;
+    }
+    
+    static IndexChange create(Document keys, IndexOptions options) {
+        return new IndexChange(Type.CREATE, options.getName(), keys, options);
+    }
+    
+    static IndexChange drop(String name, Document keys) {
+        return new IndexChange(Type.DROP, name, keys, null);
+    }
+
+    /* copy of the options, the ones of the change are reported to listeners and stay as planned */
+    IndexOptions options(boolean background) {
+        IndexOptions copy = new IndexOptions().name(options.getName())
+                                              .unique(options.isUnique())
+                                              .sparse(options.isSparse())
+                                              .partialFilterExpression(options.getPartialFilterExpression())
+                                              .collation(options.getCollation());
+        
+        return background ? copy.background(true) : copy;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Document getKeys() {
+        return keys;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + name + " " + (keys != null ? keys.toJson() : "");
+    }
+}
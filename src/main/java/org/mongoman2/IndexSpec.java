@@ -0,0 +1,241 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import com.mongodb.client.model.Collation;
+import com.mongodb.client.model.CollationStrength;
+import com.mongodb.client.model.IndexOptions;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import org.bson.Document;
+import org.mongoman2.annotations.CompoundIndex;
+import org.mongoman2.annotations.Index;
+import org.mongoman2.annotations.Unique;
+
+/**
+ * Index declared on a kind through @Index, @Unique or @CompoundIndex. The name of
+ * the index tells which declaration it comes from, indexes with these prefixes 
+ * are managed by the Datastore and dropped once no longer declared
+ * 
+ * @author ahmed
+ */
+class IndexSpec {
+    
+    final static String UNIQUE_INDEX_PREFIX = "__unique_";
+    final static String REGULAR_INDEX_PREFIX = "__regular_";
+    final static String WILDCARD_INDEX_PREFIX = "__wildcard_";
+    final static String COMPOUND_INDEX_PREFIX = "__compound_";
+    
+    final String name;
+    final Document keys;
+    final boolean unique;
+    final boolean sparse;
+    final Document partialFilter;
+    final String locale;
+    final int strength;
+
+    private IndexSpec(String name, Document keys, boolean unique, boolean sparse, String partialFilter, String locale, int strength) {
+        this.name = name;
+        this.keys = keys;
+        this.unique = unique;
+        this.sparse = sparse;
+        this.partialFilter = partialFilter.isEmpty() ? null : Document.parse(partialFilter);
+        this.locale = locale.isEmpty() ? null : locale;
+        this.strength = strength;
+    }
+    
+    static boolean isManaged(String name) {
+        return name.startsWith(UNIQUE_INDEX_PREFIX) || name.startsWith(REGULAR_INDEX_PREFIX) ||
+               name.startsWith(WILDCARD_INDEX_PREFIX) || name.startsWith(COMPOUND_INDEX_PREFIX);
+    }
+    
+    /* indexes declared on the fields and on the class */
+    static List<IndexSpec> forClass(Class<? extends Base> clazz) {
+        List<IndexSpec> specs = new ArrayList<>();
+        boolean ignoreNull = ClassMap.getVariables(clazz).ignoreNull;
+        
+        /* Get all public fields of the class */
+        for(Field field : clazz.getFields()) {
+            /* must not be static */
+            if(Modifier.isStatic(field.getModifiers()))
+                continue;
+            
+            String name = field.getName();
+            Unique unique = field.getAnnotation(Unique.class);
+            Index index = field.getAnnotation(Index.class);
+            
+            if(unique != null) {
+                /* with ignoreNull missing fields would all collide on null */
+                String partialFilter = unique.partialFilter().isEmpty() && ignoreNull && !unique.sparse() ?
+                                           new Document(name, new Document("$exists", true)).toJson() : unique.partialFilter();
+                
+                specs.add(new IndexSpec(UNIQUE_INDEX_PREFIX + name, new Document(name, 1), true, unique.sparse(), 
+                                        partialFilter, unique.collation(), unique.collationStrength()));
+            } else if(index != null && index.wildcard()) {
+                if(!Map.class.isAssignableFrom(field.getType()))
+                    throw new MongomanException("Wildcard index on " + clazz.getName() + "." + name + " requires a Map field");
+                
+                specs.add(new IndexSpec(WILDCARD_INDEX_PREFIX + name, new Document(name + ".$**", 1), false, false, 
+                                        index.partialFilter(), index.collation(), index.collationStrength()));
+            } else if(index != null) {
+                specs.add(new IndexSpec(REGULAR_INDEX_PREFIX + name, new Document(name, 1), false, index.sparse(), 
+                                        index.partialFilter(), index.collation(), index.collationStrength()));
+            }
+        }
+        
+        for(CompoundIndex compound : clazz.getAnnotationsByType(CompoundIndex.class)) {
+            Document keys = new Document();
+            StringBuilder generated = new StringBuilder();
+            
+            for(String f : compound.fields()) {
+                boolean descending = f.startsWith("-");
+                String path = descending ? f.substring(1) : f;
+                
+                Filter.validateFieldPath(path, clazz);
+                keys.put(path, descending ? -1 : 1);
+                
+                if(generated.length() > 0)
+                    generated.append('_');
+                
+                generated.append(path).append('_').append(descending ? -1 : 1);
+            }
+            
+            if(keys.size() < 2)
+                throw new MongomanException("Compound index on " + clazz.getName() + " needs at least two fields");
+            
+            String name = compound.name().isEmpty() ? generated.toString() : compound.name();
+            
+            specs.add(new IndexSpec(COMPOUND_INDEX_PREFIX + name, keys, compound.unique(), compound.sparse(), 
+                                    compound.partialFilter(), compound.collation(), compound.collationStrength()));
+        }
+        
+        return specs;
+    }
+    
+    IndexOptions options() {
+        IndexOptions options = new IndexOptions().name(name).unique(unique).sparse(sparse);
+        
+        if(partialFilter != null)
+            options.partialFilterExpression(partialFilter);
+        
+        if(locale != null) {
+            Collation.Builder collation = Collation.builder().locale(locale);
+            
+            if(strength > 0)
+                collation.collationStrength(CollationStrength.fromInt(strength));
+            
+            options.collation(collation.build());
+        }
+        
+        return options;
+    }
+    
+    /* true if an index listed by the server is this index, the order of the keys matters */
+    boolean matches(Document existing) {
+        Document existingKeys = existing.get("key", Document.class);
+        
+        if(existingKeys == null || !new ArrayList<>(keys.entrySet()).equals(new ArrayList<>(normalize(existingKeys).entrySet())))
+            return false;
+        
+        if(unique != existing.getBoolean("unique", false) || sparse != existing.getBoolean("sparse", false))
+            return false;
+        
+        if(!Objects.equals(partialFilter, existing.get("partialFilterExpression")))
+            return false;
+        
+        Document collation = existing.get("collation", Document.class);
+        
+        if(locale == null)
+            return collation == null;
+        
+        if(collation == null || !locale.equals(collation.getString("locale")))
+            return false;
+        
+        return strength == 0 || strength == ((Number) collation.get("strength")).intValue();
+    }
+    
+    /* the server may report directions as doubles */
+    private static Document normalize(Document keys) {
+        Document result = new Document();
+        
+        for(Map.Entry<String, Object> e : keys.entrySet())
+            result.put(e.getKey(), e.getValue() instanceof Number ? ((Number) e.getValue()).intValue() : e.getValue());
+        
+        return result;
+    }
+
+    /* everything that defines the index */
+    Document toDocument() {
+        return new Document("name", name)
+                   .append("keys", keys)
+                   .append("unique", unique)
+                   .append("sparse", sparse)
+                   .append("partialFilter", partialFilter)
+                   .append("locale", locale)
+                   .append("strength", strength);
+    }
+    
+    /**
+     * Hash of the key and index declarations of the class, changes whenever
+     * the indexes the class needs change
+     * 
+     * @param clazz
+     * @return hex encoded SHA-256 hash
+     */
+    static String fingerprint(Class<? extends Base> clazz) {
+        List<Document> indexes = new ArrayList<>();
+        
+        for(IndexSpec spec : forClass(clazz))
+            indexes.add(spec.toDocument());
+        
+        String schema = new Document("keyAsId", ClassMap.getVariables(clazz).keyAsId)
+                            .append("key", Base.getKeyFields(clazz))
+                            .append("indexes", indexes)
+                            .toJson();
+        
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(schema.getBytes(StandardCharsets.UTF_8));
+            StringBuilder result = new StringBuilder();
+            
+            for(byte b : hash)
+                result.append(String.format("%02x", b));
+            
+            return result.toString();
+        } catch(NoSuchAlgorithmException ex) {
+            throw new MongomanException(ex);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + keys.toJson();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of synchronizing the indexes of a kind
+ * 
+ * @author ahmed
+ */
+public class IndexSyncResult {
+    
+    private final String kind;
+    private final List<IndexChange> changes;
+    private final boolean dryRun;
+
+    IndexSyncResult(String kind, List<IndexChange> changes, boolean dryRun) {
+        this.kind = kind;
+        this.changes = Collections.unmodifiableList(changes);
+        this.dryRun = dryRun;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    /* Changes made, or planned for a dry run, in the order they are applied */
+    public List<IndexChange> getChanges() {
+        return changes;
+    }
+
+    public boolean isDryRun() {
+        return dryRun;
+    }
+
+    @Override
+    public String toString() {
+        return "IndexSyncResult{kind=" + kind + ", dryRun=" + dryRun + ", changes=" + changes + "}";
+    }
+}
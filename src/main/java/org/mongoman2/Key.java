@@ -30,6 +30,7 @@ import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TreeSet;
 import java.util.Map.Entry;
 
 
@@ -41,20 +42,67 @@ public class Key implements Serializable {
     public final String kind;
     protected final Document data;
     protected final Document filterData;
+    
+    /* _id of the object for kinds using the key as _id, null otherwise */
+    protected final Document id;
+    
+    /* filter used to find the object by its key */
+    protected final Document lookup;
 
     private final int hashCode;
 
     private Filter filter;
 
     protected Key(Base object) throws IllegalArgumentException, IllegalAccessException {
-        kind = object.getKind();
-        data = toDocument(object);
-        filterData = toFilterDocument(data);
+        this(object.getKind(), toDocument(object), ClassMap.getVariables(object.getClass()).keyAsId);
+    }
+
+    private Key(String kind, Document data, boolean keyAsId) {
+        this.kind = kind;
+        this.data = data;
+        this.filterData = toFilterDocument(data);
+        
+        if(keyAsId) {
+            id = toIdDocument(data);
+            lookup = new Document("_id", id);
+        } else {
+            id = null;
+            lookup = filterData;
+        }
 
         hashCode = Arrays.hashCode(new int[]{kind.hashCode(), data.hashCode()});
     }
 
-    private Document toDocument(Base object) throws IllegalArgumentException, IllegalAccessException {
+    /**
+     * Builds the key from a stored document without instantiating the object, 
+     * the document only needs to contain the key fields (or the _id for kinds using the key as _id)
+     * 
+     * @param clazz
+     * @param document
+     * @return 
+     */
+    protected static Key fromDocument(Class<? extends Base> clazz, Document document) {
+        ClassMap.classVariables variables = ClassMap.getVariables(clazz);
+        Document source = variables.keyAsId ? (Document) document.get("_id") : document;
+        
+        if(source == null)
+            throw new MongomanException("Document does not contain the key of " + clazz.getName());
+        
+        Document result = new Document();
+
+        for(Field field : clazz.getFields()) {
+            if(!Base.isKeyField(field))
+                continue;
+
+            String name = field.getName();
+            
+            result.append(name, toKeyValue(Base.convertDBToField(source.get(name), new TypeInfo(field))));
+        }
+        
+        return new Key(variables.kind, result, variables.keyAsId);
+    }
+
+    private static Document toDocument(Base object) throws IllegalArgumentException, IllegalAccessException {
         Document result = new Document();
 
         /* Get all public fields of the class */
@@ -69,20 +117,20 @@ public class Key implements Serializable {
             if(Modifier.isStatic(field.getModifiers()))
                 continue;
 
-            String name = field.getName();
-
-            Object value = field.get(object);
-
-            /* in case of a Base class .. only use its key */
-            if(value instanceof Base)
-                result.append(name, ((Base) value).getKey().data);
-            else if(value instanceof Enum)
-                result.append(name, ((Enum)value).name());
-            else
-                result.append(name, value);
+            result.append(field.getName(), toKeyValue(field.get(object)));
         }
         return result;
     }
+    
+    private static Object toKeyValue(Object value) {
+        /* in case of a Base class .. only use its key */
+        if(value instanceof Base)
+            return ((Base) value).getKey().data;
+        else if(value instanceof Enum)
+            return ((Enum)value).name();
+        else
+            return value;
+    }
 
     /**
      * Ensures that nested objects are referenced correctly
@@ -91,7 +139,7 @@ public class Key implements Serializable {
      * @param data
      * @return
      */
-    private Document toFilterDocument(Document data) {
+    private static Document toFilterDocument(Document data) {
         Document result = new Document();
 
         for(Entry<String, Object> e : data.entrySet()) {
@@ -111,6 +159,24 @@ public class Key implements Serializable {
         return result;
     }
 
+    /**
+     * Sorts fields by name so that the _id does not depend on field order 
+     * -> {a: .., b: {c: .., d: ..}}
+     * 
+     * @param data
+     * @return 
+     */
+    private static Document toIdDocument(Document data) {
+        Document result = new Document();
+        
+        for(String name : new TreeSet<>(data.keySet())) {
+            Object value = data.get(name);
+            result.put(name, value instanceof Document ? toIdDocument((Document) value) : value);
+        }
+        
+        return result;
+    }
+
     public Filter toFilter() {
         if(filter != null)
             return filter;
@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import com.mongodb.client.MongoCursor;
+import java.util.Iterator;
+import org.bson.Document;
+
+/**
+ * Cursor over the keys of a query, keys are built directly from the documents
+ * returned by the key index without instantiating the objects
+ * 
+ * @author ahmed
+ */
+public class KeyCursor implements Iterable<Key>, AutoCloseable {
+
+    MongoCursor<Document> cursor;
+    Class<? extends Base> clazz;
+    
+    private Key curr;
+    private int numSeen;
+    
+    protected KeyCursor(MongoCursor<Document> cursor, Class<? extends Base> clazz) {
+        this.cursor = cursor;
+        this.clazz = clazz;
+        this.numSeen = 0;
+    }
+
+    /* Returns the key the cursor is at */
+    public Key curr() {
+        return curr;
+    }
+
+    /* Checks if there is another key available */
+    public boolean hasNext() {
+        return cursor.hasNext();
+    }
+
+    /* Non-blocking check for tailable cursors to see if another key is available */
+    public Key tryNext() {
+        Document next = cursor.tryNext();
+        
+        if(next != null) {
+            curr = Key.fromDocument(clazz, next);
+            numSeen++;
+            return curr;
+        }
+        
+        return null;
+    }
+
+    /* Returns the key the cursor is at and moves the cursor ahead by one .. throws exception if next key doesnt exist */
+    public Key next() {
+        curr = Key.fromDocument(clazz, cursor.next());
+        numSeen++;
+        return curr;
+    }
+
+    /* Returns the number of keys through which the cursor has iterated */
+    public int numSeen() {
+        return numSeen;
+    }
+
+    public Key one() {
+        if(cursor.hasNext()) 
+            return next();
+        
+        return null;
+    }
+
+    @Override
+    public void close() {
+        cursor.close();
+    }
+
+    /* Single use iterator over the remaining keys */
+    @Override
+    public Iterator<Key> iterator() {
+        return new Iterator<Key>() {
+            @Override
+            public boolean hasNext() {
+                return KeyCursor.this.hasNext();
+            }
+
+            @Override
+            public Key next() {
+                return KeyCursor.this.next();
+            }
+        };
+    }
+
+    public MongoCursor<Document> getMongoCursor() {
+        return cursor;
+    }
+}
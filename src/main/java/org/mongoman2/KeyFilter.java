@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over the keys of a single kind, used by Datastore to answer
+ * lookups of keys that definitely do not exist without a round trip
+ * 
+ * @author ahmed
+ */
+class KeyFilter {
+    final long expectedKeys;
+    final double falsePositiveRate;
+
+    private final AtomicLongArray bits;
+    private final long numBits;
+    private final int numHashes;
+
+    KeyFilter(long expectedKeys, double falsePositiveRate) {
+        if(expectedKeys <= 0)
+            throw new MongomanException("Expected number of keys must be positive");
+
+        if(falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new MongomanException("False positive rate must be between 0 and 1");
+
+        this.expectedKeys = expectedKeys;
+        this.falsePositiveRate = falsePositiveRate;
+
+        /* m = -n ln(p) / ln(2)^2, k = m/n ln(2) */
+        long m = (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        long words = Math.max(1, (m + 63) >>> 6);
+
+        if(words > Integer.MAX_VALUE)
+            throw new MongomanException("Key filter too large: " + expectedKeys + " keys");
+
+        this.bits = new AtomicLongArray((int) words);
+        this.numBits = words << 6;
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / expectedKeys * Math.log(2)));
+    }
+
+    void add(Key key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+
+        for(int i=0; i < numHashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, numBits);
+            int word = (int) (bit >>> 6);
+            long mask = 1L << bit;
+
+            long current;
+            while(((current = bits.get(word)) & mask) == 0 && !bits.compareAndSet(word, current, current | mask));
+        }
+    }
+
+    /* false means the key was never added, true means it probably was */
+    boolean mightContain(Key key) {
+        long h1 = hash(key);
+        long h2 = mix(h1 ^ 0x9E3779B97F4A7C15L) | 1;
+
+        for(int i=0; i < numHashes; i++) {
+            long bit = Long.remainderUnsigned(h1 + i * h2, numBits);
+
+            if((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0)
+                return false;
+        }
+
+        return true;
+    }
+
+    /* 64 bit FNV-1a over the serialized key data followed by a finalizer */
+    private static long hash(Key key) {
+        byte[] data = key.toString().getBytes(StandardCharsets.UTF_8);
+        long h = 0xCBF29CE484222325L;
+
+        for(byte b : data) {
+            h ^= b & 0xff;
+            h *= 0x100000001B3L;
+        }
+
+        return mix(h);
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
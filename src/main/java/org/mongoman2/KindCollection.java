@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.MongoCollection;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bson.Document;
+
+/**
+ * Collection of a kind along with its views for each write concern and read preference,
+ * the common ones are created upfront so that writes do not allocate a new view each time
+ * 
+ * @author ahmed
+ */
+class KindCollection {
+    
+    final MongoCollection<Document> collection;
+    
+    private final MongoCollection<Document> acknowledged;
+    private final ConcurrentHashMap<WriteConcern, MongoCollection<Document>> writeViews;
+    private final ConcurrentHashMap<ReadPreference, MongoCollection<Document>> readViews;
+    
+    /* whether the collection has a default collation, null until looked up */
+    volatile Boolean collated;
+    
+    private final static WriteConcern[] WRITE_CONCERNS = {
+        WriteConcern.ACKNOWLEDGED, WriteConcern.UNACKNOWLEDGED, WriteConcern.W1, 
+        WriteConcern.W2, WriteConcern.MAJORITY, WriteConcern.JOURNALED
+    };
+    
+    private final static ReadPreference[] READ_PREFERENCES = {
+        ReadPreference.primary(), ReadPreference.primaryPreferred(), ReadPreference.secondary(), 
+        ReadPreference.secondaryPreferred(), ReadPreference.nearest()
+    };
+
+    KindCollection(MongoCollection<Document> collection) {
+        this.collection = collection;
+        this.writeViews = new ConcurrentHashMap<>();
+        this.readViews = new ConcurrentHashMap<>();
+        
+        for(WriteConcern concern : WRITE_CONCERNS)
+            writeViews.put(concern, collection.withWriteConcern(concern));
+        
+        for(ReadPreference preference : READ_PREFERENCES)
+            readViews.put(preference, collection.withReadPreference(preference));
+        
+        this.acknowledged = writeViews.get(WriteConcern.ACKNOWLEDGED);
+    }
+    
+    /* view for writes, acknowledged when no concern is given */
+    MongoCollection<Document> forWrite(WriteConcern concern) {
+        if(concern == null)
+            return acknowledged;
+        
+        MongoCollection<Document> view = writeViews.get(concern);
+        
+        return view != null ? view : writeViews.computeIfAbsent(concern, collection::withWriteConcern);
+    }
+    
+    /* view for reads, the collection itself when no preference is given */
+    MongoCollection<Document> forRead(ReadPreference preference) {
+        if(preference == null)
+            return collection;
+        
+        MongoCollection<Document> view = readViews.get(preference);
+        
+        return view != null ? view : readViews.computeIfAbsent(preference, collection::withReadPreference);
+    }
+}
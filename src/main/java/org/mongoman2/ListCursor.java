@@ -0,0 +1,75 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import java.util.Iterator;
+import java.util.List;
+import org.bson.Document;
+
+/**
+ * Cursor over documents already read from the database, lets results of 
+ * aggregations go through the regular Cursor decoding
+ * 
+ * @author ahmed
+ */
+class ListCursor implements MongoCursor<Document> {
+    
+    private final Iterator<Document> iterator;
+
+    ListCursor(List<Document> documents) {
+        this.iterator = documents.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return iterator.hasNext();
+    }
+
+    @Override
+    public Document next() {
+        return iterator.next();
+    }
+
+    @Override
+    public Document tryNext() {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public ServerCursor getServerCursor() {
+        return null;
+    }
+
+    @Override
+    public ServerAddress getServerAddress() {
+        return null;
+    }
+}
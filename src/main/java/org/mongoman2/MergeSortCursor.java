@@ -0,0 +1,178 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import com.mongodb.client.MongoCursor;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import org.bson.Document;
+
+/**
+ * Cursor over several cursors sharing the same sort order, returns the objects
+ * in the global sort order using a k-way merge on the raw documents.
+ * Each cursor is read ahead concurrently on the decode executor of the datastore,
+ * into a buffer of up to capacity documents the merge takes from
+ * 
+ * @author ahmed
+ * @param <T>
+ */
+class MergeSortCursor<T extends Base> extends Cursor<T> {
+    
+    private final List<MongoCursor<Document>> cursors;
+    private final List<ReadAhead<Document>> readers;
+    private final PriorityQueue<Head> heap;
+    private final int skip;
+    private final int limit;
+    
+    private int returned;
+    private boolean started;
+    private boolean closed;
+    
+    /* current document of one of the cursors, ties keep the order of the cursors */
+    private static class Head {
+        final Document document;
+        final int index;
+
+        Head(Document document, int index) {
+            this.document = document;
+            this.index = index;
+        }
+    }
+
+    MergeSortCursor(List<MongoCursor<Document>> cursors, Document sort, Class<? extends Base> clazz, Datastore datastore, 
+                    boolean loadNested, boolean partial, int skip, int limit, int capacity) {
+        super(null, clazz, datastore, loadNested, partial);
+        
+        Comparator<Document> order = new SortComparator(sort);
+        
+        this.cursors = new ArrayList<>(cursors);
+        this.heap = new PriorityQueue<>(Math.max(1, cursors.size()), 
+                                        (h1, h2) -> {
+                                            int result = order.compare(h1.document, h2.document);
+                                            return result != 0 ? result : Integer.compare(h1.index, h2.index);
+                                        });
+        this.skip = skip;
+        this.limit = limit;
+        this.readers = new ArrayList<>(cursors.size());
+        
+        ExecutorService executor = datastore.decodeExecutor();
+        
+        for(MongoCursor<Document> cursor : cursors)
+            readers.add(new ReadAhead<>(cursor, cursor::close, capacity, executor, () -> { }));
+    }
+    
+    /* pulls the first document of every cursor and drops the skipped ones */
+    private void start() {
+        if(started)
+            return;
+        
+        started = true;
+        
+        for(int i=0; i < cursors.size(); i++)
+            pull(i);
+        
+        for(int i=0; i < skip && !heap.isEmpty(); i++)
+            take();
+    }
+    
+    /* the reader closes its cursor once it reaches the end */
+    private void pull(int index) {
+        Document document = readers.get(index).take();
+        
+        if(document != null)
+            heap.add(new Head(document, index));
+    }
+    
+    private Document take() {
+        Head head = heap.poll();
+        pull(head.index);
+        return head.document;
+    }
+
+    @Override
+    public boolean hasNext() {
+        checkCancelled();
+        
+        if(closed)
+            return false;
+        
+        try {
+            start();
+        } catch(RuntimeException ex) {
+            close();
+            throw failure(ex);
+        }
+        
+        if(heap.isEmpty() || (limit > 0 && returned >= limit)) {
+            close();
+            return false;
+        }
+        
+        return true;
+    }
+
+    @Override
+    public T tryNext() {
+        return hasNext() ? next() : null;
+    }
+
+    @Override
+    public T next() {
+        return advance(decode(fetch()));
+    }
+    
+    @Override
+    Object fetch() {
+        if(!hasNext())
+            throw new NoSuchElementException();
+        
+        returned++;
+        
+        try {
+            return take();
+        } catch(RuntimeException ex) {
+            close();
+            throw failure(ex);
+        }
+    }
+    
+    @Override
+    List<MongoCursor<Document>> serverCursors() {
+        return cursors;
+    }
+
+    /* each reader closes its cursor once its current read returns */
+    @Override
+    public void close() {
+        closed = true;
+        heap.clear();
+        
+        for(ReadAhead<Document> reader : readers)
+            reader.close();
+    }
+}
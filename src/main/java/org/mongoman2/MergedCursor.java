@@ -0,0 +1,192 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cursor over several cursors consumed concurrently, each read ahead on the
+ * decode executor of the datastore. Objects are returned in the order they arrive
+ * 
+ * @author ahmed
+ * @param <T>
+ */
+class MergedCursor<T extends Base> extends Cursor<T> {
+    
+    private final List<Cursor<T>> cursors;
+    private final List<ReadAhead<T>> readers;
+    private final int limit;
+    
+    /* signaled by the readers whenever an object arrives or a cursor ends */
+    private final ReentrantLock lock;
+    private final Condition ready;
+    
+    /* reader polled first, rotated so that no cursor is starved */
+    private int first;
+    private T nextItem;
+    private volatile boolean closed;
+
+    MergedCursor(List<Cursor<T>> cursors, Class<? extends Base> clazz, Datastore datastore, int limit, int capacity) {
+        super(null, clazz, datastore, false, false);
+        
+        this.cursors = new ArrayList<>(cursors);
+        this.readers = new ArrayList<>(cursors.size());
+        this.limit = limit;
+        this.lock = new ReentrantLock();
+        this.ready = lock.newCondition();
+        
+        ExecutorService executor = datastore.decodeExecutor();
+        int perCursor = Math.max(1, capacity / Math.max(1, cursors.size()));
+        
+        for(Cursor<T> cursor : cursors)
+            readers.add(new ReadAhead<>(cursor.iterator(), cursor::close, perCursor, executor, this::signal));
+    }
+    
+    private void signal() {
+        lock.lock();
+        try {
+            ready.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private boolean limitReached() {
+        return limit > 0 && numSeen() >= limit;
+    }
+    
+    /* takes an object that already arrived, false if none did, sets running if a cursor may still provide one */
+    private boolean poll(boolean[] running) {
+        int count = readers.size();
+        
+        for(int i=0; i < count; i++) {
+            ReadAhead<T> reader = readers.get((first + i) % count);
+            T item;
+            
+            try {
+                item = reader.poll();
+            } catch(RuntimeException ex) {
+                close();
+                throw failure(ex);
+            }
+            
+            if(item != null) {
+                first = (first + i + 1) % count;
+                nextItem = item;
+                return true;
+            }
+            
+            if(!reader.isDrained())
+                running[0] = true;
+        }
+        
+        return false;
+    }
+
+    @Override
+    public boolean hasNext() {
+        checkCancelled();
+        
+        lock.lock();
+        try {
+            while(nextItem == null) {
+                if(closed)
+                    return false;
+                
+                if(limitReached()) {
+                    close();
+                    return false;
+                }
+                
+                boolean[] running = new boolean[1];
+                
+                if(!poll(running)) {
+                    if(!running[0])
+                        return false;
+                    
+                    ready.await();
+                }
+            }
+            
+            return true;
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MongomanException(ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public T tryNext() {
+        checkCancelled();
+        
+        if(nextItem == null && (closed || limitReached() || !poll(new boolean[1])))
+            return null;
+        
+        return next();
+    }
+
+    @Override
+    public T next() {
+        if(!hasNext())
+            throw new NoSuchElementException();
+        
+        T item = nextItem;
+        nextItem = null;
+        return advance(item);
+    }
+
+    /* the readers stop on the errors of their killed cursors */
+    @Override
+    public void cancel() {
+        super.cancel();
+        
+        for(Cursor<T> cursor : cursors)
+            cursor.cancel();
+    }
+
+    /* each reader closes its own cursor once it notices */
+    @Override
+    public void close() {
+        closed = true;
+        nextItem = null;
+        
+        for(ReadAhead<T> reader : readers)
+            reader.close();
+    }
+
+    /* objects arrive decoded already, splits only hand over decoded objects */
+    @Override
+    public Spliterator<T> spliterator() {
+        return Spliterators.spliteratorUnknownSize(iterator(), Spliterator.NONNULL);
+    }
+}
@@ -36,4 +36,8 @@ public class MongomanException extends RuntimeException {
     public MongomanException(Exception ex) {
         super(ex);
     }
+    
+    public MongomanException(String str, Exception ex) {
+        super(str, ex);
+    }
 }
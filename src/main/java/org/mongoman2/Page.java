@@ -0,0 +1,61 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of query results together with the number of objects matching the query
+ * 
+ * @author ahmed
+ * @param <T>
+ */
+public class Page<T extends Base> {
+    
+    private final List<T> items;
+    private final long total;
+    private final boolean exact;
+
+    Page(List<T> items, long total, boolean exact) {
+        this.items = Collections.unmodifiableList(items);
+        this.total = total;
+        this.exact = exact;
+    }
+
+    /* Objects of the page, after skip and limit */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /* Number of matching objects regardless of skip and limit, at most the cap of a capped count */
+    public long getTotal() {
+        return total;
+    }
+
+    /* False if the count stopped at its cap and more objects match */
+    public boolean isExact() {
+        return exact;
+    }
+}
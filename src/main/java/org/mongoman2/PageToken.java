@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+
+/**
+ * Opaque continuation token of a paged query, holds the sort specification and the
+ * sort values of the last returned document as extended json so types survive the round trip
+ * 
+ * @author ahmed
+ */
+class PageToken {
+    
+    private static final JsonWriterSettings SETTINGS = JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build();
+    
+    static String encode(Document sort, Document last) {
+        List<Object> values = new ArrayList<>(sort.size());
+        
+        for(String path : sort.keySet())
+            values.add(SortComparator.valueAt(last, path));
+        
+        String json = new Document("s", sort).append("v", values).toJson(SETTINGS);
+        
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+    
+    /**
+     * Range predicate selecting the documents that follow the token in sort order,
+     * one term per sort field: equal on all previous fields and after the value on that field
+     * 
+     * @param sort sort specification of the query, must match the one the token was created with
+     * @param token
+     * @return 
+     */
+    static Document filter(Document sort, String token) {
+        List<Object> values = decode(sort, token);
+        List<Document> terms = new ArrayList<>(sort.size());
+        Document prefix = new Document();
+        
+        int i = 0;
+        for(Map.Entry<String, Object> e : sort.entrySet()) {
+            Object value = values.get(i++);
+            Document after = after(e.getKey(), value, ((Number) e.getValue()).intValue() < 0);
+            
+            if(after != null) {
+                Document term = new Document(prefix);
+                
+                if(term.isEmpty())
+                    terms.add(after);
+                else
+                    terms.add(new Document("$and", Arrays.asList(term, after)));
+            }
+            
+            prefix.put(e.getKey(), value);
+        }
+        
+        if(terms.isEmpty())
+            return new Document("_id", new Document("$exists", false));
+        
+        return terms.size() == 1 ? terms.get(0) : new Document("$or", terms);
+    }
+    
+    /* comparisons only match values of the same type, nulls sort first and are handled on their own */
+    private static Document after(String field, Object value, boolean descending) {
+        if(value == null)
+            return descending ? null : new Document(field, new Document("$ne", null));
+        
+        Document after = new Document(field, new Document(descending ? "$lt" : "$gt", value));
+        
+        if(descending)
+            return new Document("$or", Arrays.asList(after, new Document(field, null)));
+        
+        return after;
+    }
+    
+    private static List<Object> decode(Document sort, String token) {
+        Document data;
+        
+        try {
+            data = Document.parse(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+        } catch(RuntimeException ex) {
+            throw new MongomanException("Invalid continuation token");
+        }
+        
+        Object tokenSort = data.get("s");
+        Object values = data.get("v");
+        
+        boolean matches = tokenSort instanceof Document && sort.equals(tokenSort) &&
+                          new ArrayList<>(sort.keySet()).equals(new ArrayList<>(((Document) tokenSort).keySet()));
+        
+        if(!matches || !(values instanceof List) || ((List<?>) values).size() != sort.size())
+            throw new MongomanException("Continuation token does not match the sort of the query");
+        
+        return new ArrayList<Object>((List<?>) values);
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import com.mongodb.client.MongoCursor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import org.bson.Document;
+
+/**
+ * Cursor that fetches documents in the background and decodes them into objects
+ * on the decode executor of the datastore, the consumer only takes decoded objects 
+ * from a bounded queue.
+ * No task ever waits for the consumer or for another task: the fetcher reads one
+ * chunk per task and is only scheduled again while fewer than decodeThreads chunks
+ * are waiting, so any executor, even a single thread, keeps making progress.
+ * A consumer that would wait for a task still queued on the executor runs it
+ * itself, so consumers running on the executor (MergedCursor) cannot starve it
+ * 
+ * @author ahmed
+ * @param <T>
+ */
+class PipelinedCursor<T extends Base> extends Cursor<T> {
+    
+    private final ExecutorService executor;
+    private final int chunkSize;
+    private final boolean ordered;
+    
+    /* decoded chunks, in fetch order if ordered, in completion order otherwise */
+    private final BlockingQueue<Future<List<T>>> results;
+    
+    /* tasks handed to the executor that did not start yet */
+    private final Queue<FutureTask<Void>> queued;
+    
+    /* marks the end of the results, already completed so tryNext() reaches it */
+    private final Future<List<T>> end;
+    
+    /* chunks that may still be fetched before the consumer takes one, guarded by this */
+    private int permits;
+    
+    /* a fetch task is scheduled or running, guarded by this */
+    private boolean fetching;
+    
+    /* the server cursor is exhausted, failed or closed, guarded by this */
+    private boolean fetched;
+    
+    /* chunks fetched but not yet queued when decoding in completion order, guarded by this */
+    private int decoding;
+    
+    private Iterator<T> current;
+    private boolean finished;
+    private volatile boolean closed;
+
+    PipelinedCursor(MongoCursor<Document> cursor, Class<? extends Base> clazz, Datastore datastore, boolean loadNested, boolean partial, 
+                    int threads, boolean ordered, int chunkSize) {
+        super(cursor, clazz, datastore, loadNested, partial);
+        
+        this.executor = datastore.decodeExecutor();
+        this.ordered = ordered;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.results = new LinkedBlockingQueue<>();
+        this.queued = new ConcurrentLinkedQueue<>();
+        this.end = CompletableFuture.completedFuture(Collections.emptyList());
+        this.permits = Math.max(1, threads);
+        this.current = Collections.emptyIterator();
+        
+        schedule();
+    }
+    
+    /* starts fetching the next chunk if allowed, or releases the server cursor once closed */
+    private void schedule() {
+        boolean fetch = false;
+        boolean release = false;
+        
+        synchronized(this) {
+            if(fetching || fetched)
+                return;
+            
+            if(closed) {
+                fetched = true;
+                release = true;
+            } else if(permits > 0) {
+                permits--;
+                fetching = true;
+                fetch = true;
+            }
+        }
+        
+        if(release)
+            cursor.close();
+        else if(fetch)
+            run(this::fetchChunk);
+    }
+    
+    private void fetchChunk() {
+        List<Document> chunk = new ArrayList<>(chunkSize);
+        
+        try {
+            while(chunk.size() < chunkSize && !closed && cursor.hasNext())
+                chunk.add(cursor.next());
+        } catch(RuntimeException ex) {
+            FutureTask<List<T>> failed = new FutureTask<>(() -> { throw ex; });
+            failed.run();
+            results.add(failed);
+            
+            fetchDone();
+            return;
+        }
+        
+        if(chunk.isEmpty()) {
+            fetchDone();
+            return;
+        }
+        
+        FutureTask<List<T>> task = new FutureTask<>(() -> decodeAll(chunk));
+        
+        if(ordered) {
+            results.add(task);
+            run(task);
+        } else {
+            synchronized(this) {
+                decoding++;
+            }
+            
+            run(() -> {
+                task.run();
+                results.add(task);
+                decoded();
+            });
+        }
+        
+        synchronized(this) {
+            fetching = false;
+        }
+        
+        schedule();
+    }
+    
+    /* in completion order the end can only be signaled once all chunks are queued */
+    private void fetchDone() {
+        boolean signal;
+        
+        synchronized(this) {
+            fetching = false;
+            fetched = true;
+            signal = ordered || decoding == 0;
+        }
+        
+        cursor.close();
+        
+        if(signal)
+            results.add(end);
+    }
+    
+    private void decoded() {
+        boolean signal;
+        
+        synchronized(this) {
+            signal = --decoding == 0 && fetched;
+        }
+        
+        if(signal)
+            results.add(end);
+    }
+    
+    /* tasks the executor rejects run on the calling thread */
+    private void run(Runnable action) {
+        FutureTask<Void> task = new FutureTask<Void>(action, null) {
+            @Override
+            public void run() {
+                queued.remove(this);
+                super.run();
+            }
+        };
+        
+        queued.add(task);
+        
+        try {
+            executor.execute(task);
+        } catch(RejectedExecutionException ex) {
+            task.run();
+        }
+    }
+    
+    private List<T> decodeAll(List<Document> chunk) {
+        List<T> decoded = new ArrayList<>(chunk.size());
+        
+        for(Document document : chunk)
+            decoded.add(super.decode(document));
+        
+        return decoded;
+    }
+    
+    /* takes the next decoded chunk, returns false at the end of the results */
+    private boolean take(Future<List<T>> result) {
+        if(result == end) {
+            finished = true;
+            return false;
+        }
+        
+        synchronized(this) {
+            permits++;
+        }
+        
+        schedule();
+        
+        /* runs a chunk still waiting for an executor thread here, does nothing if it already started */
+        if(result instanceof FutureTask)
+            ((FutureTask<List<T>>) result).run();
+        
+        try {
+            current = result.get().iterator();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MongomanException(ex);
+        } catch(ExecutionException ex) {
+            close();
+            
+            if(ex.getCause() instanceof RuntimeException)
+                throw failure((RuntimeException) ex.getCause());
+            
+            throw new MongomanException(ex);
+        }
+        
+        return true;
+    }
+
+    @Override
+    public boolean hasNext() {
+        checkCancelled();
+        
+        while(!current.hasNext()) {
+            if(finished || closed)
+                return false;
+            
+            try {
+                Future<List<T>> result = results.poll();
+                
+                /* a reader running on the executor itself must not wait for tasks queued behind it */
+                if(result == null) {
+                    FutureTask<Void> pending = queued.poll();
+                    
+                    if(pending != null) {
+                        pending.run();
+                        continue;
+                    }
+                    
+                    result = results.take();
+                }
+                
+                if(!take(result))
+                    return false;
+            } catch(InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new MongomanException(ex);
+            }
+        }
+        
+        return true;
+    }
+
+    @Override
+    public T tryNext() {
+        checkCancelled();
+        
+        while(!current.hasNext()) {
+            if(finished || closed)
+                return null;
+            
+            Future<List<T>> result = results.peek();
+            
+            if(result == null || !result.isDone())
+                return null;
+            
+            if(!take(results.poll()))
+                return null;
+        }
+        
+        return advance(current.next());
+    }
+
+    @Override
+    public T next() {
+        if(!hasNext())
+            throw new NoSuchElementException();
+        
+        return advance(current.next());
+    }
+
+    /* a running fetch task closes the server cursor once its chunk is read */
+    @Override
+    public void close() {
+        closed = true;
+        schedule();
+    }
+
+    /* objects are already decoded in parallel, splits only hand over decoded objects */
+    @Override
+    public Spliterator<T> spliterator() {
+        return Spliterators.spliteratorUnknownSize(iterator(), ordered ? Spliterator.ORDERED | Spliterator.NONNULL : Spliterator.NONNULL);
+    }
+}
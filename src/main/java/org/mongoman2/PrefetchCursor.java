@@ -0,0 +1,266 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.bson.BsonBinaryReader;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Decoder;
+import org.bson.codecs.DecoderContext;
+
+/**
+ * Reads ahead of the consumer on the decode executor of the datastore so that 
+ * getMore requests for the next batches run while the current batch is processed.
+ * Prefetched documents are bounded by their BSON size, the prefetch task returns
+ * its thread once the buffer is full and is scheduled again when the consumer
+ * makes room
+ * 
+ * @author ahmed
+ */
+class PrefetchCursor implements MongoCursor<Document> {
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+    
+    private final MongoCursor<RawBsonDocument> cursor;
+    private final Decoder<Document> decoder;
+    private final long maxBytes;
+    private final ExecutorService executor;
+    
+    private final ArrayDeque<Document> buffer;
+    private final ArrayDeque<Integer> sizes;
+    private long bufferedBytes;
+    
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    
+    /* the scheduled or running prefetch task, null while the buffer is full */
+    private FutureTask<Void> task;
+    
+    private boolean done;
+    private RuntimeException failure;
+    private volatile boolean closed;
+
+    PrefetchCursor(MongoCursor<RawBsonDocument> cursor, Decoder<Document> decoder, long maxBytes, ExecutorService executor) {
+        this.cursor = cursor;
+        this.decoder = decoder;
+        this.maxBytes = maxBytes;
+        this.executor = executor;
+        this.buffer = new ArrayDeque<>();
+        this.sizes = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        
+        run(schedule());
+    }
+    
+    /* called holding the lock or before the cursor is shared, the task is started by run() */
+    private FutureTask<Void> schedule() {
+        task = new FutureTask<>(this::prefetch, null);
+        return task;
+    }
+    
+    /* tasks the executor rejects run on the calling thread */
+    private void run(FutureTask<Void> next) {
+        try {
+            executor.execute(next);
+        } catch(RejectedExecutionException ex) {
+            next.run();
+        }
+    }
+    
+    private void prefetch() {
+        try {
+            while(true) {
+                lock.lock();
+                try {
+                    if(closed)
+                        break;
+                    
+                    /* a document larger than the budget is still let through on its own */
+                    if(bufferedBytes >= maxBytes) {
+                        task = null;
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                
+                if(!cursor.hasNext())
+                    break;
+                
+                RawBsonDocument raw = cursor.next();
+                int size = raw.getByteBuffer().remaining();
+                Document document = decoder.decode(new BsonBinaryReader(raw.getByteBuffer().asNIO()), DECODER_CONTEXT);
+                
+                lock.lock();
+                try {
+                    if(closed)
+                        break;
+                    
+                    buffer.add(document);
+                    sizes.add(size);
+                    bufferedBytes += size;
+                    notEmpty.signal();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } catch(RuntimeException ex) {
+            failure = ex;
+        }
+        
+        finish();
+    }
+    
+    private void finish() {
+        cursor.close();
+        
+        lock.lock();
+        try {
+            done = true;
+            task = null;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        lock.lock();
+        try {
+            while(buffer.isEmpty() && !done && !closed) {
+                FutureTask<Void> pending = task;
+                
+                /* runs a prefetch still waiting for an executor thread here, does nothing if it already started */
+                lock.unlock();
+                try {
+                    if(pending != null)
+                        pending.run();
+                } finally {
+                    lock.lock();
+                }
+                
+                if(buffer.isEmpty() && !done && !closed)
+                    notEmpty.await();
+            }
+            
+            if(buffer.isEmpty() && failure != null)
+                throw failure;
+            
+            return !buffer.isEmpty();
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MongomanException(ex);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Document next() {
+        if(!hasNext())
+            throw new NoSuchElementException();
+        
+        return poll();
+    }
+
+    @Override
+    public Document tryNext() {
+        lock.lock();
+        try {
+            if(buffer.isEmpty() && failure != null)
+                throw failure;
+            
+            return buffer.isEmpty() ? null : poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    private Document poll() {
+        FutureTask<Void> next = null;
+        Document document;
+        
+        lock.lock();
+        try {
+            bufferedBytes -= sizes.poll();
+            document = buffer.poll();
+            
+            if(task == null && !done && !closed && bufferedBytes < maxBytes)
+                next = schedule();
+        } finally {
+            lock.unlock();
+        }
+        
+        if(next != null)
+            run(next);
+        
+        return document;
+    }
+
+    /* a running prefetch task closes the server cursor as soon as its current request returns */
+    @Override
+    public void close() {
+        boolean release;
+        
+        lock.lock();
+        try {
+            closed = true;
+            buffer.clear();
+            sizes.clear();
+            bufferedBytes = 0;
+            release = task == null && !done;
+            
+            if(release)
+                done = true;
+            
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        
+        if(release)
+            cursor.close();
+    }
+
+    @Override
+    public ServerCursor getServerCursor() {
+        return cursor.getServerCursor();
+    }
+
+    @Override
+    public ServerAddress getServerAddress() {
+        return cursor.getServerAddress();
+    }
+}
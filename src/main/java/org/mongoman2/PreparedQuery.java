@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import org.bson.Document;
+
+/**
+ * Query compiled once and executed many times with different parameter values.
+ * The filter is kept as a template, each thread binds the parameters into its own
+ * copy of the template by writing only the parameter slots, hedged executions bind
+ * into a fresh copy
+ * 
+ * @author ahmed
+ * @param <T>
+ */
+public class PreparedQuery<T extends Base> {
+    
+    private final Query<T> query;
+    private final Document template;
+    
+    private final List<String> names;
+    
+    /* field path of each parameter, null when the value is not a value of the field like a regex pattern */
+    private final List<FieldPath> fieldPaths;
+    
+    private final ThreadLocal<Binding> bindings;
+    
+    /* copy of the template owned by one thread with a setter for each parameter slot */
+    private class Binding {
+        final Document filter;
+        final List<Consumer<Object>> slots;
+
+        /* parameters are met in the same order as in findParams */
+        Binding() {
+            this.slots = new ArrayList<>(names.size());
+            this.filter = copy(template);
+        }
+        
+        private Document copy(Document source) {
+            Document result = new Document();
+            
+            for(Map.Entry<String, Object> e : source.entrySet()) {
+                String key = e.getKey();
+                
+                if(e.getValue() instanceof Query.Param) {
+                    result.put(key, null);
+                    slots.add(value -> result.put(key, value));
+                } else {
+                    result.put(key, copyValue(e.getValue()));
+                }
+            }
+            
+            return result;
+        }
+        
+        private List<Object> copy(List<?> source) {
+            List<Object> result = new ArrayList<>(source.size());
+            
+            for(int i=0; i < source.size(); i++) {
+                int index = i;
+                
+                if(source.get(i) instanceof Query.Param) {
+                    result.add(null);
+                    slots.add(value -> result.set(index, value));
+                } else {
+                    result.add(copyValue(source.get(i)));
+                }
+            }
+            
+            return result;
+        }
+        
+        private Object copyValue(Object value) {
+            if(value instanceof Document)
+                return copy((Document) value);
+            
+            if(value instanceof List)
+                return copy((List<?>) value);
+            
+            return value;
+        }
+    }
+
+    PreparedQuery(Query<T> query) {
+        if(query.isPaged())
+            throw new MongomanException("Prepared queries do not support continuation tokens");
+        
+        this.query = query;
+        this.template = query.getFilter();
+        this.names = new ArrayList<>();
+        this.fieldPaths = new ArrayList<>();
+        
+        findParams(template, null, null);
+        
+        /* compute the cached documents of the query before it is shared between threads */
+        query.getSort();
+        query.getProjection();
+        
+        this.bindings = ThreadLocal.withInitial(Binding::new);
+    }
+    
+    /* field is the closest enclosing key that is not an operator, operator the closest one that is */
+    private void findParams(Object value, String field, String operator) {
+        if(value instanceof Query.Param) {
+            names.add(((Query.Param) value).name);
+            
+            /* regex patterns are not values of the field */
+            boolean convert = field != null && !"$regex".equals(operator);
+            fieldPaths.add(convert ? FieldPath.resolve(query.clazz, field) : null);
+        } else if(value instanceof Document) {
+            for(Map.Entry<String, Object> e : ((Document) value).entrySet()) {
+                String key = e.getKey();
+                
+                if(key.startsWith("$"))
+                    findParams(e.getValue(), field, key);
+                else
+                    findParams(e.getValue(), key, null);
+            }
+        } else if(value instanceof List) {
+            for(Object o : (List<?>) value)
+                findParams(o, field, operator);
+        }
+    }
+
+    /* Names of the parameters in the order they appear in the filter */
+    public List<String> getParams() {
+        return Collections.unmodifiableList(names);
+    }
+
+    public Query<T> getQuery() {
+        return query;
+    }
+    
+    /* Builds the filter for the given values in the copy of the template, values are converted the same way as in Query.createFilter */
+    private Document bind(Binding binding, Map<String, ?> params) {
+        for(int i=0; i < names.size(); i++) {
+            String name = names.get(i);
+            
+            if(!params.containsKey(name))
+                throw new MongomanException("Missing value for parameter: " + name);
+            
+            FieldPath path = fieldPaths.get(i);
+            Object value = params.get(name);
+            
+            binding.slots.get(i).accept(path != null ? path.convert(value) : Filter.convertValue(value));
+        }
+        
+        return binding.filter;
+    }
+    
+    public Cursor<T> execute(Map<String, ?> params) {
+        return execute(Datastore.fetchDefaultService(), params);
+    }
+
+    /**
+     * The bound filter is encoded when the cursor is opened so the thread can reuse it right after.
+     * Hedged reads encode it on other threads, the losing one possibly after this returns,
+     * so they bind into a copy of their own
+     */
+    public Cursor<T> execute(Datastore datastore, Map<String, ?> params) {
+        Binding binding = query.isHedged(datastore) ? new Binding() : bindings.get();
+        
+        return query.execute(datastore, bind(binding, params));
+    }
+    
+    public Cursor<T> execute(Object... nameValuePairs) {
+        return execute(Datastore.fetchDefaultService(), params(nameValuePairs));
+    }
+    
+    public Cursor<T> execute(Datastore datastore, Object... nameValuePairs) {
+        return execute(datastore, params(nameValuePairs));
+    }
+    
+    private static Map<String, Object> params(Object... nameValuePairs) {
+        if(nameValuePairs.length % 2 != 0)
+            throw new MongomanException("Parameters must be given as name, value pairs");
+        
+        Map<String, Object> params = new HashMap<>();
+        
+        for(int i=0; i < nameValuePairs.length; i += 2)
+            params.put((String) nameValuePairs[i], nameValuePairs[i + 1]);
+        
+        return params;
+    }
+}
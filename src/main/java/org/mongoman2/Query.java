@@ -23,9 +23,21 @@
  */
 package org.mongoman2;
 
+import com.mongodb.ReadPreference;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.EstimatedDocumentCountOptions;
+import org.bson.RawBsonDocument;
 import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  *
@@ -59,6 +71,32 @@ public class Query<T extends Base> {
         }
     }
 
+    /* Placeholder of a filter value, bound when executing a PreparedQuery */
+    public static final class Param {
+        final String name;
+
+        private Param(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return "?" + name;
+        }
+    }
+
+    /* maximum number of documents decoded by one task of a pipelined cursor */
+    private static final int DECODE_CHUNK = 64;
+    
+    /* query cache keys, extended json so values of different types never produce the same key */
+    private static final JsonWriterSettings SHAPE_SETTINGS = JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build();
+    
+    /* sampled _ids per partition when splitting a parallel scan */
+    private static final int SAMPLES_PER_PARTITION = 32;
+    
+    /* queries returning up to this many objects are hedged when the datastore hedges reads */
+    private static final int HEDGED_LIMIT = 100;
+
     public final Class<? extends Base> clazz;
     private final String kind;
     private boolean keysOnly;
@@ -75,6 +113,23 @@ public class Query<T extends Base> {
     private int skip;
     private int limit;
     private int batch;
+    
+    /* threads decoding the results in the background, 0 decodes on the calling thread */
+    private int decodeThreads;
+    private boolean orderedDecode;
+    
+    /* maximum size of documents read ahead of the consumer, 0 disables read ahead */
+    private long prefetchBytes;
+    
+    /* keyset pagination, the token of the page to start after */
+    private boolean paged;
+    private String after;
+    
+    /* null to use the read preference of the kind or the datastore */
+    private ReadPreference readPreference;
+    
+    /* 0 to use the time budget of the datastore */
+    private long maxTimeMS;
 
     public Query(Class<T> clazz) {
         this.clazz = clazz;
@@ -87,11 +142,16 @@ public class Query<T extends Base> {
         this.skip = 0;
         this.limit = 0;
         this.batch = 1000;
+        this.decodeThreads = 0;
+        this.orderedDecode = true;
+        this.prefetchBytes = 0;
     }
 
     public Query setKeysOnly() {
         this.keysOnly = true;
         
+        computedProjection = null;
+        
         return this;
     }
 
@@ -103,15 +163,39 @@ public class Query<T extends Base> {
     
     /* Method to create a new Filter and validate fields immediately */
     public Filter createFilter(String property, FilterOperator operator, Object value) {
-        Filter f = new Filter(property, operator, value);
-        f.validateFieldPath(clazz);
-        return f;
+        FieldPath path = FieldPath.resolve(clazz, property);
+        
+        /* regex patterns are not values of the field */
+        if(operator != FilterOperator.REGEX)
+            value = path.convert(value);
+        
+        return new Filter(property, operator, value);
     }     
     
     public Filter createFilter(Query.FilterOperator op, Filter... filters) {
         return new Filter(op, filters);
     }     
 
+    /* Placeholder for a filter value of a prepared query, see prepare() */
+    public static Param param(String name) {
+        return new Param(name);
+    }
+
+    /**
+     * Compiles the query once for repeated execution with different parameter values.
+     * The query should not be modified afterwards, paged queries (see after()) can not be prepared
+     * 
+     * @return thread safe prepared query
+     */
+    public PreparedQuery<T> prepare() {
+        return new PreparedQuery<>(this);
+    }
+
+    /* Aggregation pipeline starting with the filter, sort, skip, limit and projection of this query */
+    public Aggregation<T> aggregate() {
+        return new Aggregation<>(this);
+    }
+
     public Query setSkip(int skip) {
         this.skip = skip;
         return this;
@@ -127,6 +211,60 @@ public class Query<T extends Base> {
         return this;
     }
 
+    /* Fetches documents in the background and decodes them on the decode executor of the datastore, at most this many chunks ahead of the reader */
+    public Query setDecodeThreads(int decodeThreads) {
+        this.decodeThreads = decodeThreads;
+        return this;
+    }
+
+    /* When decoding in the background, false delivers objects as soon as they are decoded regardless of query order */
+    public Query setOrderedDecode(boolean orderedDecode) {
+        this.orderedDecode = orderedDecode;
+        return this;
+    }
+
+    /* Requests the next batches in the background while the current one is processed, up to maxBytes of documents */
+    public Query setPrefetch(long maxBytes) {
+        this.prefetchBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Pages through the results using the sort index instead of skip. _id is added as the
+     * last sort field and the query only returns objects that follow the token in sort order.
+     * Sort fields should hold values of a single type, comparisons do not cross types
+     * 
+     * @param token from Cursor.continuationToken() of the previous page, null for the first page
+     * @return 
+     */
+    public Query after(String token) {
+        this.paged = true;
+        this.after = token;
+        
+        computedSort = null;
+        computedProjection = null;
+        
+        return this;
+    }
+
+    /* Reads from the given members instead of the ones of the kind or the datastore */
+    public Query setReadPreference(ReadPreference preference) {
+        this.readPreference = preference;
+        return this;
+    }
+
+    /* Reads from the given members, skipping secondaries that lag more than the given number of seconds */
+    public Query setReadPreference(ReadPreference preference, long maxStalenessSeconds) {
+        this.readPreference = Datastore.readPreference(preference, maxStalenessSeconds);
+        return this;
+    }
+
+    /* Time budget of the query on the server in milliseconds, 0 to use the one of the datastore */
+    public Query setMaxTime(long maxTimeMS) {
+        this.maxTimeMS = maxTimeMS;
+        return this;
+    }
+
     public Query setLoadNested(boolean loadNested) {
         this.loadNested = loadNested;
         return this;
@@ -136,6 +274,7 @@ public class Query<T extends Base> {
         sort.put(field, dir);
         
         computedSort = null;
+        computedProjection = null;
         
         return this;
     }
@@ -166,26 +305,304 @@ public class Query<T extends Base> {
         return this;
     }
 
+    boolean isPaged() {
+        return paged;
+    }
+    
     public Cursor<T> execute() {
         return execute(Datastore.fetchDefaultService());
     }
 
     public Cursor<T> execute(Datastore datastore) {
-        MongoCursor<Document> cursor = datastore.getCollection(getKind())
-                                                .find(getFilter())
-                                                .projection(getProjection())
-                                                .sort(getSort())
-                                                .skip(skip)
-                                                .batchSize(batch)
-                                                .limit(limit)
-                                                .iterator();
+        if(paged)
+            return executePage(datastore);
+        
+        return execute(datastore, getFilter());
+    }
+    
+    /* runs the query with an already built filter, served from the query cache of the kind if enabled */
+    Cursor<T> execute(Datastore datastore, Document filter) {
+        guard(datastore, filter);
+        
+        MongoCollection<Document> collection = readCollection(datastore);
+        ClientSession session = datastore.session();
+        QueryCache cache = datastore.getQueryCache(getKind());
+        
+        /* a secondary may not have replicated writes that already invalidated the cache */
+        if(cache == null || collection.getReadPreference().isSlaveOk())
+            return cursor(datastore, isHedged(datastore) ? hedgedIterator(datastore, filter) : iterator(datastore, session, collection, filter));
+        
+        MongoCursor<Document> cursor = cache.cursor(getShape(filter), 
+                                                    () -> find(datastore, session, collection.withDocumentClass(RawBsonDocument.class), filter, skip, limit).iterator(),
+                                                    collection.getCodecRegistry().get(Document.class));
+        
+        return cursor(datastore, cursor);
+    }
+    
+    /* canonical form of everything that affects the documents returned */
+    private String getShape(Document filter) {
+        return new Document("filter", filter)
+                   .append("sort", getSort())
+                   .append("projection", getProjection())
+                   .append("skip", skip)
+                   .append("limit", limit)
+                   .toJson(SHAPE_SETTINGS);
+    }
+    
+    /* paged cursors decode on the calling thread to keep track of the last returned document */
+    private Cursor<T> executePage(Datastore datastore) {
+        Document query = getFilter();
+        
+        if(after != null) {
+            Document range = PageToken.filter(getSort(), after);
+            query = query.isEmpty() ? range : new Document("$and", Arrays.asList(query, range));
+        }
+        
+        guard(datastore, query);
+        
+        MongoCursor<Document> iterator = isHedged(datastore) ? hedgedIterator(datastore, query) : iterator(datastore, datastore.session(), readCollection(datastore), query);
+        Cursor<T> cursor = new Cursor<>(iterator, clazz, datastore, loadNested, isPartial());
+        cursor.page(getSort(), after);
+        
+        return cursor;
+    }
+
+    public Cursor<T> executeParallel(int partitions) {
+        return executeParallel(Datastore.fetchDefaultService(), partitions);
+    }
+
+    /**
+     * Scans the matching objects using one cursor per _id range, all read concurrently on
+     * the decode executor of the datastore. Without a sort objects are returned in no
+     * particular order, otherwise each range is read ahead into a buffer of a batch of
+     * objects and the buffers are merged in sort order. The limit applies to the total, so does the skip which
+     * needs a sort: skipping objects that arrive in no particular order skips arbitrary ones
+     * 
+     * @param datastore
+     * @param partitions number of _id ranges to scan concurrently
+     * @return 
+     */
+    public Cursor<T> executeParallel(Datastore datastore, int partitions) {
+        if(sort.isEmpty()) {
+            if(skip > 0)
+                throw new MongomanException("Skip needs a sort for parallel queries");
+            
+            return new MergedCursor<>(executePartitioned(datastore, partitions), clazz, datastore, limit, batch);
+        }
+        
+        checkMergeSort(datastore);
+        
+        MongoCollection<Document> collection = readCollection(datastore);
+        List<MongoCursor<Document>> cursors = new ArrayList<>();
+        
+        /* no causal session, a session cannot be used by cursors consumed concurrently */
+        for(Document partition : partitionFilters(collection, partitions))
+            cursors.add(iterator(datastore, null, collection, partition, 0, mergeLimit()));
+        
+        return new MergeSortCursor<>(cursors, getSort(), clazz, datastore, loadNested, isPartial(), skip, limit, batch);
+    }
+    
+    public Cursor<T> executeMerged(Datastore... datastores) {
+        return executeMerged(Arrays.asList(datastores));
+    }
+    
+    /**
+     * Runs the query against each datastore and merges the results in sort order,
+     * the skip and limit apply to the merged results. The datastores are read
+     * concurrently on the decode executor of the first one
+     * 
+     * @param datastores
+     * @return 
+     */
+    public Cursor<T> executeMerged(List<Datastore> datastores) {
+        if(datastores.isEmpty())
+            throw new MongomanException("No datastores to query");
+        
+        List<MongoCursor<Document>> cursors = new ArrayList<>(datastores.size());
+        
+        for(Datastore datastore : datastores)
+            checkMergeSort(datastore);
+        
+        for(Datastore datastore : datastores)
+            cursors.add(iterator(datastore, null, readCollection(datastore), getFilter(), 0, mergeLimit()));
+        
+        return new MergeSortCursor<>(cursors, getSort(), clazz, datastores.get(0), loadNested, isPartial(), skip, limit, batch);
+    }
+    
+    /* merged results are ordered on the client by code point, which a default collation of the collection would not follow */
+    private void checkMergeSort(Datastore datastore) {
+        if(datastore.hasDefaultCollation(getKind()))
+            throw new MongomanException("Sorted results of " + getKind() + " cannot be merged, its collection has a default collation");
+    }
+    
+    /* each merged cursor may have to provide all the skipped and returned objects */
+    private int mergeLimit() {
+        return limit > 0 ? skip + limit : 0;
+    }
+
+    public List<Cursor<T>> executePartitioned(int partitions) {
+        return executePartitioned(Datastore.fetchDefaultService(), partitions);
+    }
+
+    /**
+     * Splits the _id space of the kind into ranges holding roughly the same number 
+     * of objects, based on a random sample of _ids, and returns one cursor per range.
+     * Each cursor applies the filter, sort, projection and limit of the query
+     * 
+     * @param datastore
+     * @param partitions maximum number of ranges, fewer are returned for small collections
+     * @return 
+     */
+    public List<Cursor<T>> executePartitioned(Datastore datastore, int partitions) {
+        if(skip > 0)
+            throw new MongomanException("Skip is not supported for partitioned queries");
+        
+        MongoCollection<Document> collection = readCollection(datastore);
+        List<Cursor<T>> cursors = new ArrayList<>();
+        
+        for(Document partition : partitionFilters(collection, partitions))
+            cursors.add(cursor(datastore, iterator(datastore, null, collection, partition)));
+        
+        return cursors;
+    }
+    
+    /* the query filter restricted to each _id range */
+    private List<Document> partitionFilters(MongoCollection<Document> collection, int partitions) {
+        List<Object> splits = splitPoints(collection, partitions);
+        List<Document> filters = new ArrayList<>(splits.size() + 1);
+        
+        Document filter = getFilter();
+        
+        for(int i=0; i <= splits.size(); i++) {
+            Document range = new Document();
+            
+            if(i > 0)
+                range.put("$gte", splits.get(i - 1));
+            
+            if(i < splits.size())
+                range.put("$lt", splits.get(i));
+            
+            Document partition = range.isEmpty() ? filter : new Document("_id", range);
+            
+            if(!filter.isEmpty() && !range.isEmpty())
+                partition = new Document("$and", Arrays.asList(filter, partition));
+            
+            filters.add(partition);
+        }
+        
+        return filters;
+    }
+    
+    /* _ids at the quantiles of a random sample, sorted by the server */
+    private List<Object> splitPoints(MongoCollection<Document> collection, int partitions) {
+        List<Object> splits = new ArrayList<>();
+        
+        if(partitions < 2)
+            return splits;
+        
+        List<Document> sample = collection.aggregate(Arrays.asList(
+            new Document("$sample", new Document("size", partitions * SAMPLES_PER_PARTITION)),
+            new Document("$project", new Document("_id", 1)),
+            new Document("$sort", new Document("_id", 1))
+        )).into(new ArrayList<>());
+        
+        for(int i=1; i < partitions && !sample.isEmpty(); i++) {
+            Object id = sample.get(i * sample.size() / partitions).get("_id");
+            
+            if(splits.isEmpty() || !splits.get(splits.size() - 1).equals(id))
+                splits.add(id);
+        }
+        
+        return splits;
+    }
+    
+    private Cursor<T> cursor(Datastore datastore, MongoCursor<Document> cursor) {
+        if(decodeThreads > 0)
+            return new PipelinedCursor<>(cursor, clazz, datastore, loadNested, isPartial(), 
+                                         decodeThreads, orderedDecode, Math.min(batch, DECODE_CHUNK));
+        
+        return new Cursor<>(cursor, clazz, datastore, loadNested, isPartial());
+    }
+    
+    /* small queries read in one request can be hedged */
+    boolean isHedged(Datastore datastore) {
+        return limit > 0 && limit <= HEDGED_LIMIT && prefetchBytes == 0 && decodeThreads == 0 && datastore.isHedging(getKind(), readPreference);
+    }
+    
+    private MongoCursor<Document> hedgedIterator(Datastore datastore, Document filter) {
+        List<Document> documents = datastore.hedgedRead(getKind(), readPreference, getMaxTime(datastore), 
+                                                        (session, collection, maxTime) -> find(datastore, session, collection, filter, skip, limit)
+                                                                                              .maxTime(maxTime, TimeUnit.MILLISECONDS)
+                                                                                              .into(new ArrayList<>()));
         
-        return new Cursor<>(cursor, clazz, datastore, loadNested);
+        return new ListCursor(documents);
+    }
+    
+    private MongoCursor<Document> iterator(Datastore datastore, ClientSession session, MongoCollection<Document> collection, Document filter) {
+        return iterator(datastore, session, collection, filter, skip, limit);
+    }
+    
+    private MongoCursor<Document> iterator(Datastore datastore, ClientSession session, MongoCollection<Document> collection, Document filter, int skip, int limit) {
+        if(prefetchBytes > 0)
+            return new PrefetchCursor(find(datastore, session, collection.withDocumentClass(RawBsonDocument.class), filter, skip, limit).iterator(),
+                                      collection.getCodecRegistry().get(Document.class), prefetchBytes, datastore.decodeExecutor());
+        
+        return find(datastore, session, collection, filter, skip, limit).iterator();
+    }
+    
+    private <D> FindIterable<D> find(Datastore datastore, ClientSession session, MongoCollection<D> collection, Document filter, int skip, int limit) {
+        FindIterable<D> find = CausalSession.find(session, collection, filter)
+                                         .maxTime(getMaxTime(datastore), TimeUnit.MILLISECONDS)
+                                         .projection(getProjection())
+                                         .sort(getSort())
+                                         .skip(skip)
+                                         .batchSize(batch)
+                                         .limit(limit);
+        
+        if(keysOnly && getKeyHint() != null)
+            find.hint(getKeyHint());
+        
+        return find;
+    }
+
+    public KeyCursor executeKeys() {
+        return executeKeys(Datastore.fetchDefaultService());
+    }
+
+    /* Returns only the keys of the matching objects, read from the key index */
+    public KeyCursor executeKeys(Datastore datastore) {
+        FindIterable<Document> find = CausalSession.find(datastore.session(), readCollection(datastore), getFilter())
+                                               .maxTime(getMaxTime(datastore), TimeUnit.MILLISECONDS)
+                                               .projection(Base.getKeyProjection(clazz))
+                                               .sort(getSort())
+                                               .skip(skip)
+                                               .batchSize(batch)
+                                               .limit(limit);
+        
+        if(getKeyHint() != null)
+            find.hint(getKeyHint());
+        
+        return new KeyCursor(find.iterator(), clazz);
+    }
+
+    /* true if the query does not load all fields of the objects */
+    public boolean isPartial() {
+        return keysOnly || !projection.isEmpty() || !ignore.isEmpty();
     }
 
     public String getKind() {
         return kind;
     }
+    
+    /* time budget of the query on the server in milliseconds, 0 for none */
+    long getMaxTime(Datastore datastore) {
+        return maxTimeMS > 0 ? maxTimeMS : datastore.getMaxTime();
+    }
+    
+    /* collection to read the results from, with the read preference of the query */
+    MongoCollection<Document> readCollection(Datastore datastore) {
+        return datastore.readCollection(getKind(), readPreference);
+    }
 
     public Document getFilter() {
         if(filter != null)
@@ -198,8 +615,14 @@ public class Query<T extends Base> {
         if(computedProjection != null)
             return computedProjection;
 
-        if(keysOnly)
-            return Base.getKeyFields(clazz);
+        if(keysOnly) {
+            computedProjection = Base.getKeyProjection(clazz);
+            
+            if(paged)
+                includeSortFields(computedProjection);
+            
+            return computedProjection;
+        }
 
         computedProjection = new Document();
 
@@ -208,10 +631,35 @@ public class Query<T extends Base> {
 
         for(String s : ignore)
             computedProjection.put(s, 0);
+        
+        if(paged)
+            includeSortFields(computedProjection);
 
         return computedProjection;
     }
 
+    /* the continuation token of a paged query is built from the sort fields */
+    private void includeSortFields(Document projection) {
+        boolean inclusion = projection.containsValue(1);
+        
+        for(String field : getSort().keySet()) {
+            if(inclusion)
+                projection.put(field, 1);
+            else
+                projection.remove(field);
+        }
+    }
+
+    /* without a filter or sort the planner would scan the collection, use the key index instead */
+    private Document getKeyHint() {
+        if(filter != null || !getSort().isEmpty())
+            return null;
+        
+        Document hint = ClassMap.getVariables(clazz).keyAsId ? new Document("_id", 1) : Base.getKeyFields(clazz);
+        
+        return hint.isEmpty() ? null : hint;
+    }
+
     public Document getSort() {
         if(computedSort != null)
             return computedSort;
@@ -221,6 +669,9 @@ public class Query<T extends Base> {
         for(Map.Entry<String, SortDirection> e : sort.entrySet()) {
             computedSort.put(e.getKey(), e.getValue().dir);
         }
+        
+        if(paged && !computedSort.containsKey("_id"))
+            computedSort.put("_id", SortDirection.ASC.dir);
 
         return computedSort;
     }
@@ -236,13 +687,171 @@ public class Query<T extends Base> {
     public int getBatch() {
         return batch;
     }
+
+    public int getDecodeThreads() {
+        return decodeThreads;
+    }
+
+    public boolean isOrderedDecode() {
+        return orderedDecode;
+    }
+
+    public long getPrefetch() {
+        return prefetchBytes;
+    }
     
-    /* Returns the total count of matching documents */
+    public QueryPlan explain() {
+        return explain(Datastore.fetchDefaultService());
+    }
+
+    /**
+     * Runs the query through the explain command with execution statistics, which 
+     * executes the query on the server without returning the documents
+     * 
+     * @param datastore
+     * @return summary of the winning plan
+     */
+    public QueryPlan explain(Datastore datastore) {
+        return explain(datastore, getFilter());
+    }
+    
+    private QueryPlan explain(Datastore datastore, Document filter) {
+        Document command = new Document("explain", findCommand(filter)).append("verbosity", "executionStats");
+        
+        return new QueryPlan(datastore.runCommand(command));
+    }
+    
+    /* the find command the driver sends for this query */
+    private Document findCommand(Document filter) {
+        Document command = new Document("find", getKind()).append("filter", filter);
+        
+        if(!getSort().isEmpty())
+            command.put("sort", getSort());
+        
+        if(!getProjection().isEmpty())
+            command.put("projection", getProjection());
+        
+        if(skip > 0)
+            command.put("skip", skip);
+        
+        if(limit > 0)
+            command.put("limit", limit);
+        
+        if(keysOnly && getKeyHint() != null)
+            command.put("hint", getKeyHint());
+        
+        return command;
+    }
+    
+    private void guard(Datastore datastore, Document filter) {
+        QueryGuard guard = datastore.getQueryGuard();
+        
+        if(guard != null)
+            guard.check(getKind(), findCommand(filter), () -> explain(datastore, filter));
+    }
+
+    public <V> ValueCursor<V> distinct(String field, Class<V> valueClass) {
+        return distinct(Datastore.fetchDefaultService(), field, valueClass);
+    }
+
+    /**
+     * Distinct values of a field among the objects matching the filter, in ascending order.
+     * Values of arrays and collections are returned one by one. Values are decoded with the 
+     * same rules as the fields of objects, enums from their names and references from their keys.
+     * Like the distinct command, objects missing the field add no value while explicit
+     * nulls do. When the field is the first field of an index the server reads the
+     * objects in index order instead of sorting them
+     * 
+     * @param <V>
+     * @param datastore
+     * @param field path of the field
+     * @param valueClass type of the values, the element type for arrays and collections
+     * @return 
+     */
+    public <V> ValueCursor<V> distinct(Datastore datastore, String field, Class<V> valueClass) {
+        FieldPath path = FieldPath.resolve(clazz, field);
+        MongoCollection<Document> collection = readCollection(datastore);
+        
+        List<Document> pipeline = new ArrayList<>();
+        
+        if(filter != null)
+            pipeline.add(new Document("$match", getFilter()));
+        
+        /* one value per element, arrays can be nested at several levels of the path */
+        boolean multiValued = false;
+        StringBuilder prefix = new StringBuilder();
+        
+        for(int i=0; i < path.fields.length; i++) {
+            if(i > 0)
+                prefix.append('.');
+            
+            prefix.append(path.fields[i].getName());
+            
+            TypeInfo type = new TypeInfo(path.fields[i]);
+            
+            if(type.isCollection() || type.isArray()) {
+                pipeline.add(new Document("$unwind", "$" + prefix));
+                multiValued = true;
+            }
+        }
+        
+        /* the group would put documents missing the field under null, the distinct command skips them */
+        pipeline.add(new Document("$match", new Document(field, new Document("$exists", true))));
+        
+        /* a sort on an indexed field lets the server read the documents in index order */
+        if(!multiValued && isIndexed(field))
+            pipeline.add(new Document("$sort", new Document(field, 1)));
+        
+        pipeline.add(new Document("$group", new Document("_id", "$" + field)));
+        pipeline.add(new Document("$sort", new Document("_id", 1)));
+        
+        TypeInfo type = new TypeInfo(valueClass);
+        MongoCursor<Document> cursor = CausalSession.aggregate(datastore.session(), collection, pipeline)
+                                                    .maxTime(getMaxTime(datastore), TimeUnit.MILLISECONDS)
+                                                    .allowDiskUse(true)
+                                                    .batchSize(batch)
+                                                    .iterator();
+        
+        /* convert returns valueClass or its boxed type, which Class.cast rejects for primitives */
+        @SuppressWarnings("unchecked")
+        Function<Document, V> mapper = (document) -> (V) ResultMapper.convert(document.get("_id"), type);
+        
+        return new ValueCursor<>(cursor, mapper);
+    }
+    
+    /* from the declared indexes, which index synchronization keeps on the collection, sparse, partial and collated ones cannot serve the sort */
+    private boolean isIndexed(String field) {
+        if(!ClassMap.getVariables(clazz).keyAsId && startsWith(Base.getKeyFields(clazz), field))
+            return true;
+        
+        for(IndexSpec spec : IndexSpec.forClass(clazz)) {
+            if(!spec.sparse && spec.partialFilter == null && spec.locale == null && startsWith(spec.keys, field))
+                return true;
+        }
+        
+        return false;
+    }
+    
+    private static boolean startsWith(Document keys, String field) {
+        return !keys.isEmpty() && keys.keySet().iterator().next().equals(field);
+    }
+
+    /* Returns the total count of matching documents, from the collection metadata when there is no filter */
     public long count() {
         return count(Datastore.fetchDefaultService());
     }
     public long count(Datastore datastore) {
-        return datastore.getCollection(getKind()).countDocuments(getFilter());
+        MongoCollection<Document> collection = readCollection(datastore);
+        ClientSession session = datastore.session();
+        
+        long maxTime = getMaxTime(datastore);
+        
+        if(filter == null && session == null)
+            return collection.estimatedDocumentCount(new EstimatedDocumentCountOptions().maxTime(maxTime, TimeUnit.MILLISECONDS));
+        
+        CountOptions options = new CountOptions().maxTime(maxTime, TimeUnit.MILLISECONDS);
+        
+        return session != null ? collection.countDocuments(session, getFilter(), options) : collection.countDocuments(getFilter(), options);
     }
 
     /* Returns the size (number of documents after applying limit and skip) */
@@ -250,16 +859,90 @@ public class Query<T extends Base> {
         return size(Datastore.fetchDefaultService());
     }
     public long size(Datastore datastore) {
-        long totalCount = count(datastore);
+        /* the server stops counting once skip + limit documents matched */
+        CountOptions options = new CountOptions().skip(skip).limit(limit).maxTime(getMaxTime(datastore), TimeUnit.MILLISECONDS);
+        
+        MongoCollection<Document> collection = readCollection(datastore);
+        ClientSession session = datastore.session();
+        
+        return session != null ? collection.countDocuments(session, getFilter(), options) : collection.countDocuments(getFilter(), options);
+    }
+
+    public Page<T> executeWithCount() {
+        return executeWithCount(Datastore.fetchDefaultService(), 0);
+    }
+
+    public Page<T> executeWithCount(long maxCount) {
+        return executeWithCount(Datastore.fetchDefaultService(), maxCount);
+    }
+
+    public Page<T> executeWithCount(Datastore datastore) {
+        return executeWithCount(datastore, 0);
+    }
+
+    /**
+     * Returns the requested page and the number of matching objects in one round trip,
+     * using a $facet aggregation over the matching documents. The facet returns a single
+     * document, so the page and the count have to fit in 16MB: larger pages fail on the
+     * server with BSONObjectTooLarge and should be read with execute and count instead.
+     * Paged queries (Query.after) are not supported
+     * 
+     * @param datastore
+     * @param maxCount stop counting after this many objects, 0 counts all
+     * @return 
+     */
+    public Page<T> executeWithCount(Datastore datastore, long maxCount) {
+        if(paged)
+            throw new MongomanException("Paged queries cannot be counted in the same request, use count");
+        
+        Document filter = getFilter();
+        guard(datastore, filter);
         
-        if(skip >= totalCount)
-            return 0;
+        List<Document> count = new ArrayList<>();
         
-        totalCount -= skip;
+        if(maxCount > 0)
+            count.add(new Document("$limit", maxCount));
         
-        if(limit < 0)
-            return totalCount;
+        count.add(new Document("$count", "total"));
+        
+        List<Document> page = new ArrayList<>();
+        
+        if(skip > 0)
+            page.add(new Document("$skip", skip));
+        
+        if(limit > 0)
+            page.add(new Document("$limit", limit));
+        
+        if(!getProjection().isEmpty())
+            page.add(new Document("$project", getProjection()));
+        
+        List<Document> pipeline = new ArrayList<>();
+        pipeline.add(new Document("$match", filter));
+        
+        /* sorting ahead of the facet lets the sort use an index */
+        if(!getSort().isEmpty())
+            pipeline.add(new Document("$sort", getSort()));
+        
+        pipeline.add(new Document("$facet", new Document("count", count).append("page", page)));
+        
+        AggregateIterable<Document> aggregate = CausalSession.aggregate(datastore.session(), readCollection(datastore), pipeline)
+                                                             .maxTime(getMaxTime(datastore), TimeUnit.MILLISECONDS)
+                                                             .allowDiskUse(true);
+        
+        if(keysOnly && getKeyHint() != null)
+            aggregate.hint(getKeyHint());
+        
+        Document result = aggregate.first();
+        
+        List<Document> counted = result.getList("count", Document.class);
+        long total = counted.isEmpty() ? 0 : counted.get(0).get("total", Number.class).longValue();
+        
+        List<T> items = new ArrayList<>();
+        
+        try(Cursor<T> cursor = new Cursor<>(new ListCursor(result.getList("page", Document.class)), clazz, datastore, loadNested, isPartial())) {
+            cursor.forEach(items::add);
+        }
         
-        return Math.min(limit, totalCount);
+        return new Page<>(items, total, maxCount <= 0 || total < maxCount);
     }
 }
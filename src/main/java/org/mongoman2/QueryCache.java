@@ -0,0 +1,250 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import com.mongodb.ServerAddress;
+import com.mongodb.ServerCursor;
+import com.mongodb.client.MongoCursor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import org.bson.BsonBinaryReader;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.Decoder;
+import org.bson.codecs.DecoderContext;
+
+/**
+ * Results of queries on one kind kept as raw BSON, keyed by the shape of the query.
+ * Every write to the kind bumps the version and drops all entries, results read
+ * while a write happened are not stored
+ * 
+ * @author ahmed
+ */
+class QueryCache {
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+    
+    final int maxEntries;
+    final long maxResultBytes;
+    
+    private final AtomicLong version;
+    private final LinkedHashMap<String, List<RawBsonDocument>> entries;
+    
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    QueryCache(int maxEntries, long maxResultBytes) {
+        this.maxEntries = maxEntries;
+        this.maxResultBytes = maxResultBytes;
+        this.version = new AtomicLong();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        
+        /* least recently used entries are evicted first */
+        this.entries = new LinkedHashMap<String, List<RawBsonDocument>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<RawBsonDocument>> eldest) {
+                return size() > QueryCache.this.maxEntries;
+            }
+        };
+    }
+    
+    /**
+     * Cursor over the cached results of the query, on a miss the results are read from
+     * the source and stored once the cursor is exhausted
+     * 
+     * @param shape canonical form of the query
+     * @param source opens the query on the database
+     * @param decoder
+     * @return 
+     */
+    MongoCursor<Document> cursor(String shape, Supplier<MongoCursor<RawBsonDocument>> source, Decoder<Document> decoder) {
+        List<RawBsonDocument> cached;
+        
+        synchronized(entries) {
+            cached = entries.get(shape);
+        }
+        
+        if(cached != null) {
+            hits.incrementAndGet();
+            return new ReplayCursor(cached.iterator(), decoder);
+        }
+        
+        misses.incrementAndGet();
+        
+        /* version is read before the query runs so writes made meanwhile are noticed */
+        return new RecordingCursor(shape, version.get(), source.get(), decoder);
+    }
+    
+    void invalidate() {
+        version.incrementAndGet();
+        
+        synchronized(entries) {
+            entries.clear();
+        }
+    }
+    
+    private void store(String shape, long readVersion, List<RawBsonDocument> result) {
+        synchronized(entries) {
+            if(version.get() == readVersion)
+                entries.put(shape, Collections.unmodifiableList(result));
+        }
+    }
+    
+    int size() {
+        synchronized(entries) {
+            return entries.size();
+        }
+    }
+    
+    QueryCacheStats getStats() {
+        return new QueryCacheStats(hits.get(), misses.get(), size());
+    }
+    
+    private static Document decode(Decoder<Document> decoder, RawBsonDocument raw) {
+        return decoder.decode(new BsonBinaryReader(raw.getByteBuffer().asNIO()), DECODER_CONTEXT);
+    }
+    
+    /* serves a cached result, each call decodes fresh documents */
+    private static class ReplayCursor implements MongoCursor<Document> {
+        private final Iterator<RawBsonDocument> iterator;
+        private final Decoder<Document> decoder;
+
+        ReplayCursor(Iterator<RawBsonDocument> iterator, Decoder<Document> decoder) {
+            this.iterator = iterator;
+            this.decoder = decoder;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return iterator.hasNext();
+        }
+
+        @Override
+        public Document next() {
+            return decode(decoder, iterator.next());
+        }
+
+        @Override
+        public Document tryNext() {
+            return hasNext() ? next() : null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public ServerCursor getServerCursor() {
+            return null;
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return null;
+        }
+    }
+    
+    /* passes the results of the database through and keeps them while they fit the size limit */
+    private class RecordingCursor implements MongoCursor<Document> {
+        private final String shape;
+        private final long readVersion;
+        private final MongoCursor<RawBsonDocument> cursor;
+        private final Decoder<Document> decoder;
+        
+        private List<RawBsonDocument> result;
+        private long resultBytes;
+
+        RecordingCursor(String shape, long readVersion, MongoCursor<RawBsonDocument> cursor, Decoder<Document> decoder) {
+            this.shape = shape;
+            this.readVersion = readVersion;
+            this.cursor = cursor;
+            this.decoder = decoder;
+            this.result = new ArrayList<>();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(cursor.hasNext())
+                return true;
+            
+            if(result != null) {
+                store(shape, readVersion, result);
+                result = null;
+            }
+            
+            return false;
+        }
+
+        @Override
+        public Document next() {
+            if(!cursor.hasNext())
+                throw new NoSuchElementException();
+            
+            return record(cursor.next());
+        }
+
+        @Override
+        public Document tryNext() {
+            RawBsonDocument raw = cursor.tryNext();
+            return raw != null ? record(raw) : null;
+        }
+        
+        private Document record(RawBsonDocument raw) {
+            if(result != null) {
+                resultBytes += raw.getByteBuffer().remaining();
+                
+                if(resultBytes > maxResultBytes)
+                    result = null;
+                else
+                    result.add(raw);
+            }
+            
+            return decode(decoder, raw);
+        }
+
+        /* results of a cursor closed before it was exhausted are incomplete */
+        @Override
+        public void close() {
+            result = null;
+            cursor.close();
+        }
+
+        @Override
+        public ServerCursor getServerCursor() {
+            return cursor.getServerCursor();
+        }
+
+        @Override
+        public ServerAddress getServerAddress() {
+            return cursor.getServerAddress();
+        }
+    }
+}
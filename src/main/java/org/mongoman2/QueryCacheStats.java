@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+/**
+ * Counters of the query cache of a kind since it was enabled
+ * 
+ * @author ahmed
+ */
+public class QueryCacheStats {
+    
+    private final long hits;
+    private final long misses;
+    private final int entries;
+
+    QueryCacheStats(long hits, long misses, int entries) {
+        this.hits = hits;
+        this.misses = misses;
+        this.entries = entries;
+    }
+
+    /* Number of queries served from memory */
+    public long getHits() {
+        return hits;
+    }
+
+    /* Number of queries that went to the database */
+    public long getMisses() {
+        return misses;
+    }
+
+    /* Number of query results currently cached */
+    public int getEntries() {
+        return entries;
+    }
+
+    /* Share of queries served from memory */
+    public double getHitRate() {
+        long total = hits + misses;
+        
+        return total > 0 ? (double) hits / total : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "hits: " + hits + ", misses: " + misses + ", entries: " + entries;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import org.bson.Document;
+
+/**
+ * Explains queries of shapes not seen before and flags the ones examining too many 
+ * documents per result. The shape of a query is its filter, sort and projection with
+ * the values left out, so each shape is explained once
+ * 
+ * @author ahmed
+ */
+class QueryGuard {
+    private static final Logger LOGGER = Logger.getLogger(QueryGuard.class.getName());
+    
+    private final double maxDocsPerResult;
+    private final double sampleRate;
+    private final boolean reject;
+    
+    /* verdicts of the shapes explained so far, empty for accepted shapes */
+    private final ConcurrentHashMap<String, String> verdicts;
+
+    QueryGuard(double maxDocsPerResult, double sampleRate, boolean reject) {
+        this.maxDocsPerResult = maxDocsPerResult;
+        this.sampleRate = sampleRate;
+        this.reject = reject;
+        this.verdicts = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Checks a query before it runs
+     * 
+     * @param kind
+     * @param command find command of the query, its shape identifies the query
+     * @param explain explains the query when its shape is new
+     */
+    void check(String kind, Document command, Supplier<QueryPlan> explain) {
+        String shape = new Document("kind", kind)
+                           .append("filter", shape(command.get("filter")))
+                           .append("sort", command.get("sort"))
+                           .append("projection", command.get("projection"))
+                           .toJson();
+        String verdict = verdicts.get(shape);
+        
+        if(verdict == null) {
+            if(ThreadLocalRandom.current().nextDouble() >= sampleRate)
+                return;
+            
+            QueryPlan plan = explain.get();
+            
+            if(plan.getDocsExaminedPerResult() <= maxDocsPerResult) {
+                verdicts.put(shape, "");
+                return;
+            }
+            
+            verdict = "Query on " + kind + " examines " + plan.getDocsExamined() + " documents for " + 
+                      plan.getReturned() + " results: " + command.toJson() + " " + plan;
+            
+            verdicts.put(shape, verdict);
+            LOGGER.warning(verdict);
+        }
+        
+        if(reject && !verdict.isEmpty())
+            throw new MongomanException(verdict);
+    }
+    
+    /* structure of a query document, values are replaced by a placeholder */
+    private static Object shape(Object value) {
+        if(value instanceof Document) {
+            Document result = new Document();
+            
+            for(Map.Entry<String, Object> e : ((Document) value).entrySet())
+                result.put(e.getKey(), shape(e.getValue()));
+            
+            return result;
+        }
+        
+        if(value instanceof List && !((List) value).isEmpty() && ((List) value).get(0) instanceof Document) {
+            Document result = new Document();
+            int i = 0;
+            
+            for(Object o : (List) value)
+                result.put(String.valueOf(i++), shape(o));
+            
+            return result;
+        }
+        
+        return "?";
+    }
+}
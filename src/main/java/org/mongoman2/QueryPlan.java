@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.bson.Document;
+
+/**
+ * Summary of the plan the server picked for a query, built from the output of
+ * the explain command with execution statistics
+ * 
+ * @author ahmed
+ */
+public class QueryPlan {
+    
+    private final Document explain;
+    private final List<String> stages;
+    private final String index;
+    private final long keysExamined;
+    private final long docsExamined;
+    private final long returned;
+
+    QueryPlan(Document explain) {
+        this.explain = explain;
+        this.stages = new ArrayList<>();
+        
+        Document planner = explain.get("queryPlanner", Document.class);
+        Document winning = planner != null ? planner.get("winningPlan", Document.class) : null;
+        
+        /* plans of the slot based engine are nested one level deeper */
+        if(winning != null && winning.containsKey("queryPlan"))
+            winning = winning.get("queryPlan", Document.class);
+        
+        this.index = collect(winning);
+        
+        Document stats = explain.get("executionStats", Document.class);
+        this.keysExamined = number(stats, "totalKeysExamined");
+        this.docsExamined = number(stats, "totalDocsExamined");
+        this.returned = number(stats, "nReturned");
+    }
+    
+    /* walks the plan tree recording the stages, returns the name of the first index used */
+    private String collect(Document stage) {
+        if(stage == null)
+            return null;
+        
+        stages.add(stage.getString("stage"));
+        
+        String result = stage.getString("indexName");
+        
+        Document input = stage.get("inputStage", Document.class);
+        String child = collect(input);
+        
+        if(result == null)
+            result = child;
+        
+        List<Document> inputs = stage.getList("inputStages", Document.class);
+        if(inputs != null) {
+            for(Document i : inputs) {
+                child = collect(i);
+                
+                if(result == null)
+                    result = child;
+            }
+        }
+        
+        return result;
+    }
+    
+    private static long number(Document document, String field) {
+        Object value = document != null ? document.get(field) : null;
+        
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    /* Name of the index used, null if the query scans the collection */
+    public String getWinningIndex() {
+        return index;
+    }
+
+    /* Stages of the winning plan from the root down */
+    public List<String> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    public boolean isCollectionScan() {
+        return stages.contains("COLLSCAN");
+    }
+
+    /* True if the results are sorted in memory instead of read in index order */
+    public boolean hasInMemorySort() {
+        return stages.contains("SORT");
+    }
+
+    /* True if the query is answered from the index without loading documents */
+    public boolean isCovered() {
+        return index != null && !stages.contains("FETCH") && !isCollectionScan();
+    }
+
+    public long getKeysExamined() {
+        return keysExamined;
+    }
+
+    public long getDocsExamined() {
+        return docsExamined;
+    }
+
+    public long getReturned() {
+        return returned;
+    }
+
+    /* Documents examined per returned document, returning nothing counts as one */
+    public double getDocsExaminedPerResult() {
+        return (double) docsExamined / Math.max(1, returned);
+    }
+
+    /* The full output of the explain command */
+    public Document getExplain() {
+        return explain;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryPlan{stages=" + stages + ", index=" + index + ", keysExamined=" + keysExamined + 
+               ", docsExamined=" + docsExamined + ", returned=" + returned + "}";
+    }
+}
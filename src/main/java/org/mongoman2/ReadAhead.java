@@ -0,0 +1,232 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Reads a source ahead of its consumer on an executor into a bounded buffer.
+ * The reading task returns its thread once the buffer is full and is scheduled
+ * again when the consumer has taken half of it, so it never blocks an executor
+ * thread waiting for the consumer
+ * 
+ * @author ahmed
+ * @param <E>
+ */
+class ReadAhead<E> {
+    
+    private final Iterator<? extends E> source;
+    private final Runnable release;
+    private final int capacity;
+    private final ExecutorService executor;
+    
+    /* called by the reading task after adding an item or reaching the end */
+    private final Runnable onReady;
+    
+    private final ArrayDeque<E> buffer;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    
+    /* the scheduled or running read task, null while the buffer is full */
+    private FutureTask<Void> task;
+    
+    private boolean done;
+    private RuntimeException failure;
+    private volatile boolean closed;
+
+    ReadAhead(Iterator<? extends E> source, Runnable release, int capacity, ExecutorService executor, Runnable onReady) {
+        this.source = source;
+        this.release = release;
+        this.capacity = Math.max(1, capacity);
+        this.executor = executor;
+        this.onReady = onReady;
+        this.buffer = new ArrayDeque<>();
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        
+        run(schedule());
+    }
+    
+    /* called holding the lock or before the reader is shared, the task is started by run() */
+    private FutureTask<Void> schedule() {
+        task = new FutureTask<>(this::read, null);
+        return task;
+    }
+    
+    /* tasks the executor rejects run on the calling thread */
+    private void run(FutureTask<Void> next) {
+        try {
+            executor.execute(next);
+        } catch(RejectedExecutionException ex) {
+            next.run();
+        }
+    }
+    
+    private void read() {
+        try {
+            while(true) {
+                lock.lock();
+                try {
+                    if(closed)
+                        break;
+                    
+                    if(buffer.size() >= capacity) {
+                        task = null;
+                        return;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                
+                if(!source.hasNext())
+                    break;
+                
+                E item = source.next();
+                
+                lock.lock();
+                try {
+                    if(closed)
+                        break;
+                    
+                    buffer.add(item);
+                    notEmpty.signal();
+                } finally {
+                    lock.unlock();
+                }
+                
+                onReady.run();
+            }
+        } catch(RuntimeException ex) {
+            failure = ex;
+        }
+        
+        release.run();
+        
+        lock.lock();
+        try {
+            done = true;
+            task = null;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        
+        onReady.run();
+    }
+    
+    /* next item, waiting for it if needed, null at the end of the source or once closed */
+    E take() {
+        lock.lock();
+        try {
+            while(buffer.isEmpty() && !done && !closed) {
+                FutureTask<Void> pending = task;
+                
+                /* runs a read still waiting for an executor thread here, does nothing if it already started */
+                lock.unlock();
+                try {
+                    if(pending != null)
+                        pending.run();
+                } finally {
+                    lock.lock();
+                }
+                
+                if(buffer.isEmpty() && !done && !closed)
+                    notEmpty.await();
+            }
+        } catch(InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new MongomanException(ex);
+        } finally {
+            lock.unlock();
+        }
+        
+        return poll();
+    }
+    
+    /* next item if one was read already, null otherwise; errors of the source are thrown once it is drained */
+    E poll() {
+        FutureTask<Void> next = null;
+        E item;
+        
+        lock.lock();
+        try {
+            if(buffer.isEmpty()) {
+                if(failure != null)
+                    throw failure;
+                
+                return null;
+            }
+            
+            item = buffer.poll();
+            
+            if(task == null && !done && !closed && buffer.size() <= capacity / 2)
+                next = schedule();
+        } finally {
+            lock.unlock();
+        }
+        
+        if(next != null)
+            run(next);
+        
+        return item;
+    }
+    
+    /* true once every item of the source was taken */
+    boolean isDrained() {
+        lock.lock();
+        try {
+            return (done || closed) && buffer.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /* a running read task releases the source as soon as its current read returns */
+    void close() {
+        boolean idle;
+        
+        lock.lock();
+        try {
+            closed = true;
+            buffer.clear();
+            idle = task == null && !done;
+            
+            if(idle)
+                done = true;
+            
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        
+        if(idle)
+            release.run();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.function.Function;
+import org.bson.Document;
+
+/**
+ * Maps documents computed by the server to objects. Base subclasses are created 
+ * the same way as query results, other classes only need a no argument constructor
+ * and get their public fields set by name
+ * 
+ * @author ahmed
+ * @param <R>
+ */
+class ResultMapper<R> implements Function<Document, R> {
+    
+    private final Class<R> clazz;
+    private final Constructor<R> constructor;
+    private final Field[] fields;
+    private final TypeInfo[] types;
+
+    ResultMapper(Class<R> clazz) {
+        this.clazz = clazz;
+        
+        if(Document.class.isAssignableFrom(clazz) || Base.class.isAssignableFrom(clazz)) {
+            this.constructor = null;
+            this.fields = null;
+            this.types = null;
+            return;
+        }
+        
+        try {
+            this.constructor = clazz.getDeclaredConstructor();
+            this.constructor.setAccessible(true);
+        } catch(NoSuchMethodException ex) {
+            throw new MongomanException(clazz.getName() + " Result classes must implement a constructor that takes no arguments");
+        }
+        
+        this.fields = clazz.getFields();
+        this.types = new TypeInfo[fields.length];
+        
+        for(int i=0; i < fields.length; i++) {
+            types[i] = new TypeInfo(fields[i]);
+            
+            if(Modifier.isFinal(fields[i].getModifiers()))
+                fields[i].setAccessible(true);
+        }
+    }
+
+    @Override
+    public R apply(Document document) {
+        if(Document.class.isAssignableFrom(clazz))
+            return clazz.cast(document);
+        
+        if(Base.class.isAssignableFrom(clazz))
+            return clazz.cast(Base.createInstance(clazz.asSubclass(Base.class), document));
+        
+        try {
+            R result = constructor.newInstance();
+            
+            for(int i=0; i < fields.length; i++) {
+                if(document.containsKey(fields[i].getName()))
+                    fields[i].set(result, convert(document.get(fields[i].getName()), types[i]));
+            }
+            
+            return result;
+        } catch(IllegalAccessException | IllegalArgumentException | InstantiationException | InvocationTargetException ex) {
+            throw new MongomanException(ex);
+        }
+    }
+    
+    /* computed numbers come back in whatever type the server picked */
+    static Object convert(Object value, TypeInfo type) {
+        if(value instanceof Number) {
+            Number n = (Number) value;
+            Class<?> c = type.clazz;
+            
+            if(c == int.class || c == Integer.class)
+                return n.intValue();
+            if(c == long.class || c == Long.class)
+                return n.longValue();
+            if(c == double.class || c == Double.class)
+                return n.doubleValue();
+            if(c == float.class || c == Float.class)
+                return n.floatValue();
+            if(c == short.class || c == Short.class)
+                return n.shortValue();
+        }
+        
+        return Base.convertDBToField(value, type);
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import java.math.BigDecimal;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import org.bson.BsonMaxKey;
+import org.bson.BsonMinKey;
+import org.bson.BsonRegularExpression;
+import org.bson.BsonTimestamp;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.Decimal128;
+import org.bson.types.MaxKey;
+import org.bson.types.MinKey;
+import org.bson.types.ObjectId;
+import org.bson.types.Symbol;
+
+/**
+ * Orders raw documents the way the server orders them for a sort specification,
+ * values of different types follow the BSON comparison order.
+ * Strings are compared by code point like the simple collation, values whose server
+ * order cannot be reproduced (UUIDs, code, database pointers) are rejected, as are
+ * arrays in sort paths: the server sorts a document by the smallest or largest 
+ * element of the array depending on the direction
+ * 
+ * @author ahmed
+ */
+class SortComparator implements Comparator<Document> {
+    
+    private final String[] paths;
+    private final int[] directions;
+
+    SortComparator(Document sort) {
+        this.paths = new String[sort.size()];
+        this.directions = new int[sort.size()];
+        
+        int i = 0;
+        for(Map.Entry<String, Object> e : sort.entrySet()) {
+            paths[i] = e.getKey();
+            directions[i] = ((Number) e.getValue()).intValue() < 0 ? -1 : 1;
+            i++;
+        }
+    }
+
+    @Override
+    public int compare(Document d1, Document d2) {
+        for(int i=0; i < paths.length; i++) {
+            int result = compareValues(valueAt(d1, paths[i]), valueAt(d2, paths[i]));
+            
+            if(result != 0)
+                return result * directions[i];
+        }
+        
+        return 0;
+    }
+    
+    /* value at a dotted path, null when any part of the path is missing */
+    static Object valueAt(Document document, String path) {
+        Object value = document;
+        
+        for(String part : path.split("\\.")) {
+            if(value instanceof List)
+                break;
+            
+            if(!(value instanceof Document))
+                return null;
+            
+            value = ((Document) value).get(part);
+        }
+        
+        if(value instanceof List)
+            throw new MongomanException("Sort field " + path + " holds an array, which cannot be ordered like the server does");
+        
+        return value;
+    }
+    
+    static int compareValues(Object v1, Object v2) {
+        int r1 = rank(v1);
+        int r2 = rank(v2);
+        
+        if(r1 != r2)
+            return Integer.compare(r1, r2);
+        
+        switch(r1) {
+            case 2:
+                return compareNumbers((Number) v1, (Number) v2);
+            case 3:
+                return compareStrings(v1.toString(), v2.toString());
+            case 4:
+                return compareDocuments((Document) v1, (Document) v2);
+            case 5:
+                return compareLists((List<?>) v1, (List<?>) v2);
+            case 6:
+                return compareBinary(v1, v2);
+            case 7:
+                return ((ObjectId) v1).compareTo((ObjectId) v2);
+            case 8:
+                return Boolean.compare((Boolean) v1, (Boolean) v2);
+            case 9:
+                return ((Date) v1).compareTo((Date) v2);
+            case 10:
+                return ((BsonTimestamp) v1).compareTo((BsonTimestamp) v2);
+            case 11:
+                return compareRegex(v1, v2);
+            default:
+                return 0;
+        }
+    }
+    
+    /* position of the type in the BSON comparison order */
+    private static int rank(Object value) {
+        if(value instanceof MinKey || value instanceof BsonMinKey)
+            return 0;
+        if(value == null)
+            return 1;
+        if(value instanceof Number || value instanceof Decimal128)
+            return 2;
+        if(value instanceof String || value instanceof Symbol)
+            return 3;
+        if(value instanceof Document)
+            return 4;
+        if(value instanceof List)
+            return 5;
+        /* the server order of a UUID depends on the representation it was stored with */
+        if(value instanceof Binary || value instanceof byte[])
+            return 6;
+        if(value instanceof ObjectId)
+            return 7;
+        if(value instanceof Boolean)
+            return 8;
+        if(value instanceof Date)
+            return 9;
+        if(value instanceof BsonTimestamp)
+            return 10;
+        if(value instanceof Pattern || value instanceof BsonRegularExpression)
+            return 11;
+        if(value instanceof MaxKey || value instanceof BsonMaxKey)
+            return 13;
+        
+        throw new MongomanException("Values of type " + value.getClass().getName() + " cannot be merged in server order");
+    }
+    
+    /* numbers compare by exact value whatever their type, NaN sorts before all other numbers */
+    private static int compareNumbers(Number n1, Number n2) {
+        boolean integral1 = isIntegral(n1);
+        boolean integral2 = isIntegral(n2);
+        
+        if(integral1 && integral2)
+            return Long.compare(n1.longValue(), n2.longValue());
+        
+        if(isNaN(n1) || isNaN(n2))
+            return Boolean.compare(!isNaN(n1), !isNaN(n2));
+        
+        if(n1 instanceof Decimal128 || n2 instanceof Decimal128) {
+            int infinity = Integer.compare(infinity(n1), infinity(n2));
+            
+            if(infinity != 0 || infinity(n1) != 0)
+                return infinity;
+            
+            return toBigDecimal(n1).compareTo(toBigDecimal(n2));
+        }
+        
+        if(integral1)
+            return -compareDouble(n2.doubleValue(), n1.longValue());
+        
+        if(integral2)
+            return compareDouble(n1.doubleValue(), n2.longValue());
+        
+        /* unlike Double.compare, -0.0 and 0.0 are equal */
+        double d1 = n1.doubleValue();
+        double d2 = n2.doubleValue();
+        
+        return d1 < d2 ? -1 : (d1 > d2 ? 1 : 0);
+    }
+    
+    /* exact comparison, converting the long to a double would round it above 2^53 */
+    private static int compareDouble(double d, long l) {
+        if(d >= 0x1p63)
+            return 1;
+        
+        if(d < -0x1p63)
+            return -1;
+        
+        /* in range the truncated double and its fraction are exact */
+        long whole = (long) d;
+        
+        if(whole != l)
+            return Long.compare(whole, l);
+        
+        double fraction = d - whole;
+        
+        return fraction > 0 ? 1 : (fraction < 0 ? -1 : 0);
+    }
+    
+    private static boolean isIntegral(Number n) {
+        return n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte;
+    }
+    
+    private static boolean isNaN(Number n) {
+        if(n instanceof Decimal128)
+            return ((Decimal128) n).isNaN();
+        
+        return !isIntegral(n) && Double.isNaN(n.doubleValue());
+    }
+    
+    /* 1 for positive infinity, -1 for negative infinity, 0 for finite numbers */
+    private static int infinity(Number n) {
+        if(n instanceof Decimal128) {
+            Decimal128 decimal = (Decimal128) n;
+            return decimal.isInfinite() ? (decimal.isNegative() ? -1 : 1) : 0;
+        }
+        
+        if(isIntegral(n) || !Double.isInfinite(n.doubleValue()))
+            return 0;
+        
+        return n.doubleValue() > 0 ? 1 : -1;
+    }
+    
+    private static BigDecimal toBigDecimal(Number n) {
+        if(n instanceof Decimal128) {
+            try {
+                return ((Decimal128) n).bigDecimalValue();
+            } catch(ArithmeticException ex) {
+                /* negative zero, which BigDecimal cannot hold */
+                return BigDecimal.ZERO;
+            }
+        }
+        
+        return isIntegral(n) ? BigDecimal.valueOf(n.longValue()) : new BigDecimal(n.doubleValue());
+    }
+    
+    /* code point order, the order of the UTF-8 bytes the server compares */
+    private static int compareStrings(String s1, String s2) {
+        int i1 = 0;
+        int i2 = 0;
+        
+        while(i1 < s1.length() && i2 < s2.length()) {
+            int c1 = s1.codePointAt(i1);
+            int c2 = s2.codePointAt(i2);
+            
+            if(c1 != c2)
+                return Integer.compare(c1, c2);
+            
+            i1 += Character.charCount(c1);
+            i2 += Character.charCount(c2);
+        }
+        
+        return Boolean.compare(i1 < s1.length(), i2 < s2.length());
+    }
+    
+    /* pattern first, then options */
+    private static int compareRegex(Object v1, Object v2) {
+        int result = compareStrings(pattern(v1), pattern(v2));
+        
+        return result != 0 ? result : compareStrings(options(v1), options(v2));
+    }
+    
+    private static String pattern(Object regex) {
+        return regex instanceof Pattern ? ((Pattern) regex).pattern() : ((BsonRegularExpression) regex).getPattern();
+    }
+    
+    private static String options(Object regex) {
+        return regex instanceof Pattern ? "" : ((BsonRegularExpression) regex).getOptions();
+    }
+    
+    private static int compareDocuments(Document d1, Document d2) {
+        Iterator<Map.Entry<String, Object>> i1 = d1.entrySet().iterator();
+        Iterator<Map.Entry<String, Object>> i2 = d2.entrySet().iterator();
+        
+        while(i1.hasNext() && i2.hasNext()) {
+            Map.Entry<String, Object> e1 = i1.next();
+            Map.Entry<String, Object> e2 = i2.next();
+            
+            int result = Integer.compare(rank(e1.getValue()), rank(e2.getValue()));
+            
+            if(result == 0)
+                result = compareStrings(e1.getKey(), e2.getKey());
+            
+            if(result == 0)
+                result = compareValues(e1.getValue(), e2.getValue());
+            
+            if(result != 0)
+                return result;
+        }
+        
+        return Boolean.compare(i1.hasNext(), i2.hasNext());
+    }
+    
+    private static int compareLists(List<?> l1, List<?> l2) {
+        int size = Math.min(l1.size(), l2.size());
+        
+        for(int i=0; i < size; i++) {
+            int result = compareValues(l1.get(i), l2.get(i));
+            
+            if(result != 0)
+                return result;
+        }
+        
+        return Integer.compare(l1.size(), l2.size());
+    }
+    
+    /* length first, then subtype, then bytes */
+    private static int compareBinary(Object v1, Object v2) {
+        byte[] b1 = bytes(v1);
+        byte[] b2 = bytes(v2);
+        
+        if(b1.length != b2.length)
+            return Integer.compare(b1.length, b2.length);
+        
+        if(subtype(v1) != subtype(v2))
+            return Integer.compare(subtype(v1), subtype(v2));
+        
+        for(int i=0; i < b1.length; i++) {
+            int result = Integer.compare(b1[i] & 0xff, b2[i] & 0xff);
+            
+            if(result != 0)
+                return result;
+        }
+        
+        return 0;
+    }
+    
+    private static int subtype(Object value) {
+        return value instanceof Binary ? ((Binary) value).getType() & 0xff : 0;
+    }
+    
+    private static byte[] bytes(Object value) {
+        if(value instanceof Binary)
+            return ((Binary) value).getData();
+        
+        return (byte[]) value;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2;
+
+import com.mongodb.client.MongoCursor;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.bson.Document;
+
+/**
+ * Cursor over values computed by the server (aggregations, distinct values),
+ * each document is mapped to a value as the cursor moves
+ * 
+ * @author ahmed
+ * @param <V>
+ */
+public class ValueCursor<V> implements Iterable<V>, AutoCloseable {
+
+    MongoCursor<Document> cursor;
+    Function<Document, V> mapper;
+    
+    private V curr;
+    private int numSeen;
+    
+    ValueCursor(MongoCursor<Document> cursor, Function<Document, V> mapper) {
+        this.cursor = cursor;
+        this.mapper = mapper;
+        this.numSeen = 0;
+    }
+
+    /* Returns the value the cursor is at */
+    public V curr() {
+        return curr;
+    }
+
+    /* Checks if there is another value available */
+    public boolean hasNext() {
+        return cursor.hasNext();
+    }
+
+    /* Non-blocking check for tailable cursors to see if another value is available */
+    public V tryNext() {
+        Document next = cursor.tryNext();
+        
+        if(next != null) {
+            curr = mapper.apply(next);
+            numSeen++;
+            return curr;
+        }
+        
+        return null;
+    }
+
+    /* Returns the value the cursor is at and moves the cursor ahead by one .. throws exception if next value doesnt exist */
+    public V next() {
+        curr = mapper.apply(cursor.next());
+        numSeen++;
+        return curr;
+    }
+
+    /* Returns the number of values through which the cursor has iterated */
+    public int numSeen() {
+        return numSeen;
+    }
+
+    public V one() {
+        if(cursor.hasNext()) 
+            return next();
+        
+        return null;
+    }
+
+    @Override
+    public void close() {
+        cursor.close();
+    }
+
+    /* Single use iterator over the remaining values */
+    @Override
+    public Iterator<V> iterator() {
+        return new Iterator<V>() {
+            @Override
+            public boolean hasNext() {
+                return ValueCursor.this.hasNext();
+            }
+
+            @Override
+            public V next() {
+                return ValueCursor.this.next();
+            }
+        };
+    }
+    
+    /* Sequential stream over the remaining values, closing the stream closes the cursor */
+    public Stream<V> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator(), Spliterator.ORDERED), false)
+                            .onClose(this::close);
+    }
+
+    public MongoCursor<Document> getMongoCursor() {
+        return cursor;
+    }
+}
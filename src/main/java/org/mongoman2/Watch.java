@@ -76,7 +76,7 @@ public class Watch<T extends Base> {
         this.mode = mode;
         
         this.datastore = datastore;
-        this.stream = datastore.getCollection(kind).watch();
+        this.stream = datastore.watch(kind);
         this.cursor = this.stream.cursor();
     }    
     
@@ -172,7 +172,7 @@ public class Watch<T extends Base> {
             BsonDocument key = lastChange.getDocumentKey();
 
             if(key != null)
-                lastdocument = datastore.get(kind, key.getObjectId("_id").getValue());
+                lastdocument = datastore.get(kind, key.get("_id"));
         }
 
         return Base.createInstance(clazz, lastdocument);
@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2020 Ahmed Tarek.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package org.mongoman2.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Repeatable;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Index over several fields of a kind, declared on the class
+ * 
+ * @author ahmed
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Repeatable(CompoundIndexes.class)
+public @interface CompoundIndex {
+    
+    /**
+     * field paths in index order, prefix a field with '-' for descending order
+     */
+    String[] fields();
+    
+    /**
+     * name of the index, generated from the fields if empty
+     */
+    String name() default "";
+    
+    boolean unique() default false;
+    
+    /**
+     * only index documents matching this filter (json)
+     */
+    String partialFilter() default "";
+    
+    /**
+     * skip documents that do not have any of the fields
+     */
+    boolean sparse() default false;
+    
+    /**
+     * collation locale of the index for string comparisons, e.g. "en"
+     */
+    String collation() default "";
+    
+    /**
+     * collation strength (1 to 5) when a collation locale is set, 0 uses the server default
+     */
+    int collationStrength() default 0;
+}
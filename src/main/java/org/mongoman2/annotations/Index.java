@@ -34,4 +34,28 @@ import java.lang.annotation.RetentionPolicy;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Index {
     
+    /**
+     * index every sub field of a Map field (wildcard index) instead of the field as a whole
+     */
+    boolean wildcard() default false;
+    
+    /**
+     * only index documents matching this filter (json), e.g. {"field": {"$exists": true}}
+     */
+    String partialFilter() default "";
+    
+    /**
+     * skip documents that do not have the field
+     */
+    boolean sparse() default false;
+    
+    /**
+     * collation locale of the index for string comparisons, e.g. "en"
+     */
+    String collation() default "";
+    
+    /**
+     * collation strength (1 to 5) when a collation locale is set, 0 uses the server default
+     */
+    int collationStrength() default 0;
 }
@@ -34,4 +34,13 @@ import java.lang.annotation.RetentionPolicy;
 public @interface Kind {
     String value();
     boolean shallow() default false;
+    
+    /**
+     * use the key fields as the _id of stored objects, key lookups then go 
+     * through the _id index and no separate key index is created.
+     * Changing it on a kind that already holds objects is refused when the collection 
+     * is first accessed, the stored objects have to be migrated first: rewrite them in 
+     * the new mode, then drop the __key_ index when enabling it
+     */
+    boolean keyAsId() default false;
 }
@@ -42,4 +42,15 @@ public @interface Options {
      *  and are not defined in the class 
      */
     public boolean ignoreUnknownProperties();
+    
+    /**
+     * read preference of queries and loads of the kind by name, ie: secondaryPreferred
+     * uses the datastore read preference when empty
+     */
+    public String readPreference() default "";
+    
+    /**
+     * max replication lag in seconds of secondaries the kind is read from, 0 for no limit
+     */
+    public long maxStalenessSeconds() default 0;
 }
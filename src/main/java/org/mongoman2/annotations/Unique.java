@@ -34,4 +34,24 @@ import java.lang.annotation.RetentionPolicy;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Unique {
     
+    /**
+     * only index documents matching this filter (json), kinds with ignoreNull only 
+     * index documents that have the field unless a filter is given
+     */
+    String partialFilter() default "";
+    
+    /**
+     * skip documents that do not have the field
+     */
+    boolean sparse() default false;
+    
+    /**
+     * collation locale of the index for string comparisons, e.g. "en"
+     */
+    String collation() default "";
+    
+    /**
+     * collation strength (1 to 5) when a collation locale is set, 0 uses the server default
+     */
+    int collationStrength() default 0;
 }
@@ -0,0 +1,66 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package junit.mongoman2.db;
+
+import java.util.Map;
+import org.mongoman2.*;
+import org.mongoman2.annotations.*;
+
+/**
+ *
+ * @author ahmed
+ */
+
+@Kind("indexed_class")
+@Options(ignoreNull = true, ignoreUnknownProperties = false)
+@CompoundIndex(fields = {"category", "-price"})
+@CompoundIndex(name = "in_stock", fields = {"category", "name"}, partialFilter = "{\"price\": {\"$gt\": 0}}")
+public class IndexedClass extends Base {
+
+    /* Final key field */
+    public final String code;
+
+    /* Unique on an ignoreNull kind, objects without an email do not collide */
+    @Unique
+    public String email;
+
+    /* Case insensitive index */
+    @Index(collation = "en", collationStrength = 2)
+    public String name;
+
+    /* Every attribute is indexed */
+    @Index(wildcard = true)
+    public Map<String, String> attributes;
+
+    public String category;
+    public int price;
+
+    public IndexedClass() {
+        this(null);
+    }
+
+    public IndexedClass(String code) {
+        this.code = code;
+    }
+}
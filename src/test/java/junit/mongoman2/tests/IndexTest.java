@@ -0,0 +1,193 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package junit.mongoman2.tests;
+
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import junit.mongoman2.db.IndexedClass;
+import org.bson.Document;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mongoman2.Base;
+import org.mongoman2.Datastore;
+import org.mongoman2.IndexChange;
+import org.mongoman2.IndexSyncListener;
+import org.mongoman2.IndexSyncMode;
+import org.mongoman2.IndexSyncResult;
+
+/**
+ *
+ * @author ahmed
+ */
+public class IndexTest extends BaseTest {
+    
+    @Before
+    public void cleanUp() {
+        datastore.getCollection(Base.getKind(IndexedClass.class)).deleteMany(new Document());
+    }
+    
+    private static Map<String, Document> indexes(Datastore store) {
+        Map<String, Document> result = new HashMap<>();
+        
+        for(Document index : store.getCollection(Base.getKind(IndexedClass.class)).listIndexes())
+            result.put(index.getString("name"), index);
+        
+        return result;
+    }
+
+    @Test
+    public void testDeclaredIndexes() {
+        Map<String, Document> indexes = indexes(datastore);
+        
+        Assert.assertTrue(indexes.containsKey("__key_"));
+        Assert.assertTrue(indexes.get("__unique_email").getBoolean("unique"));
+        Assert.assertNotNull(indexes.get("__unique_email").get("partialFilterExpression"));
+        Assert.assertEquals("en", indexes.get("__regular_name").get("collation", Document.class).getString("locale"));
+        Assert.assertEquals(new Document("attributes.$**", 1), indexes.get("__wildcard_attributes").get("key"));
+        
+        /* compound keys keep their order and direction */
+        Document compound = indexes.get("__compound_category_1_price_-1").get("key", Document.class);
+        Assert.assertEquals("[category, price]", compound.keySet().toString());
+        Assert.assertEquals(-1, ((Number) compound.get("price")).intValue());
+        Assert.assertNotNull(indexes.get("__compound_in_stock").get("partialFilterExpression"));
+    }
+
+    @Test
+    public void testUniqueOnIgnoreNullKind() {
+        /* missing emails are not indexed */
+        Assert.assertTrue(new IndexedClass("index_001").save(datastore));
+        Assert.assertTrue(new IndexedClass("index_002").save(datastore));
+        
+        IndexedClass first = new IndexedClass("index_003");
+        first.email = "someone@example.com";
+        Assert.assertTrue(first.save(datastore));
+        
+        IndexedClass second = new IndexedClass("index_004");
+        second.email = "someone@example.com";
+        
+        try {
+            second.save(datastore);
+            Assert.fail("Expected MongoWriteException for a duplicate email.");
+        } catch (MongoWriteException e) {
+            // Test passed
+        }
+    }
+
+    @Test
+    public void testChangedIndexIsRebuilt() {
+        /* an index with a managed name but another definition */
+        MongoCollection<Document> collection = datastore.getCollection(Base.getKind(IndexedClass.class));
+        collection.dropIndex("__regular_name");
+        collection.createIndex(new Document("name", -1), new IndexOptions().name("__regular_name"));
+        collection.createIndex(new Document("price", 1), new IndexOptions().name("__regular_price"));
+        
+        /* a new datastore synchronizes the indexes on first access */
+        Datastore fresh = new Datastore(datastore.getMongoClient(), datastore.name);
+        Map<String, Document> indexes = indexes(fresh);
+        
+        Assert.assertEquals(new Document("name", 1), indexes.get("__regular_name").get("key"));
+        Assert.assertNotNull(indexes.get("__regular_name").get("collation"));
+        Assert.assertFalse(indexes.containsKey("__regular_price"));
+    }
+
+    @Test
+    public void testBackgroundAndDryRunSync() throws Exception {
+        MongoCollection<Document> collection = datastore.getCollection(Base.getKind(IndexedClass.class));
+        collection.createIndex(new Document("price", 1), new IndexOptions().name("__regular_price"));
+        
+        /* a dry run only reports the changes */
+        List<IndexChange> reported = Collections.synchronizedList(new ArrayList<>());
+        Datastore dryRun = new Datastore(datastore.getMongoClient(), datastore.name);
+        dryRun.setIndexSync(IndexSyncMode.DRY_RUN, new IndexSyncListener() {
+            @Override
+            public void onChange(String kind, IndexChange change) {
+                reported.add(change);
+            }
+        });
+        
+        IndexSyncResult result = dryRun.getIndexSync(IndexedClass.class).get(1, TimeUnit.MINUTES);
+        Assert.assertTrue(result.isDryRun());
+        Assert.assertEquals(1, result.getChanges().size());
+        Assert.assertEquals(IndexChange.Type.DROP, result.getChanges().get(0).getType());
+        Assert.assertEquals("__regular_price", result.getChanges().get(0).getName());
+        Assert.assertEquals(result.getChanges(), reported);
+        Assert.assertTrue(indexes(datastore).containsKey("__regular_price"));
+        
+        /* background synchronization returns the collection right away and applies the changes later */
+        Datastore background = new Datastore(datastore.getMongoClient(), datastore.name);
+        background.setIndexSync(IndexSyncMode.BACKGROUND, null);
+        Assert.assertNotNull(background.getCollection(Base.getKind(IndexedClass.class)));
+        
+        result = background.getIndexSync(IndexedClass.class).get(1, TimeUnit.MINUTES);
+        Assert.assertFalse(result.isDryRun());
+        Assert.assertEquals(1, result.getChanges().size());
+        Assert.assertFalse(indexes(datastore).containsKey("__regular_price"));
+    }
+
+    @Test
+    public void testSchemaFingerprints() throws Exception {
+        /* the first run synchronizes the indexes and stores the fingerprint */
+        Datastore first = new Datastore(datastore.getMongoClient(), datastore.name);
+        first.setSchemaFingerprints(true);
+        first.clearSchemaFingerprints();
+        first.getIndexSync(IndexedClass.class).get(1, TimeUnit.MINUTES);
+        
+        // Step 1: an unchanged kind is not synchronized again
+        MongoCollection<Document> collection = datastore.getCollection(Base.getKind(IndexedClass.class));
+        collection.createIndex(new Document("price", 1), new IndexOptions().name("__regular_price"));
+        
+        Datastore second = new Datastore(datastore.getMongoClient(), datastore.name);
+        second.setSchemaFingerprints(true);
+        IndexSyncResult result = second.getIndexSync(IndexedClass.class).get(1, TimeUnit.MINUTES);
+        Assert.assertTrue(result.getChanges().isEmpty());
+        Assert.assertTrue(indexes(datastore).containsKey("__regular_price"));
+        
+        // Step 2: clearing the fingerprints synchronizes the kind again
+        second.clearSchemaFingerprints();
+        
+        Datastore third = new Datastore(datastore.getMongoClient(), datastore.name);
+        third.setSchemaFingerprints(true);
+        result = third.getIndexSync(IndexedClass.class).get(1, TimeUnit.MINUTES);
+        Assert.assertEquals(1, result.getChanges().size());
+        Assert.assertFalse(indexes(datastore).containsKey("__regular_price"));
+        
+        // Step 3: dropping the collection forgets its fingerprint, even without fingerprints enabled
+        datastore.dropCollection(IndexedClass.class);
+        
+        Datastore fourth = new Datastore(datastore.getMongoClient(), datastore.name);
+        fourth.setSchemaFingerprints(true);
+        result = fourth.getIndexSync(IndexedClass.class).get(1, TimeUnit.MINUTES);
+        Assert.assertFalse(result.getChanges().isEmpty());
+        
+        fourth.clearSchemaFingerprints();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 ahmed.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package junit.mongoman2.tests;
+
+import junit.mongoman2.db.TestClass;
+import org.bson.Document;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ *
+ * @author ahmed
+ */
+public class KeyFilterTest extends BaseTest {
+
+    @Before
+    public void cleanUp() {
+        datastore.getCollection(TestClass.getKind(TestClass.class)).deleteMany(new Document());
+    }
+    
+    @After
+    public void disableFilter() {
+        datastore.disableKeyFilter(TestClass.class);
+    }
+
+    @Test
+    public void testFilterBuiltFromExistingKeys() {
+        for(int i=0; i < 100; i++) {
+            TestClass obj = new TestClass("key_filter_existing_" + i);
+            obj.intValue = i;
+            Assert.assertTrue(obj.save());
+        }
+        
+        datastore.enableKeyFilter(TestClass.class, 1000, 0.01);
+
+        for(int i=0; i < 100; i++) {
+            TestClass obj = new TestClass("key_filter_existing_" + i);
+            Assert.assertTrue(obj.exists());
+            Assert.assertTrue(obj.load());
+            Assert.assertEquals(i, obj.intValue);
+        }
+        
+        Assert.assertFalse(new TestClass("key_filter_missing").exists());
+        Assert.assertFalse(new TestClass("key_filter_missing").load());
+    }
+
+    @Test
+    public void testFilterTracksLocalSaves() {
+        datastore.enableKeyFilter(TestClass.class, 1000, 0.01);
+        
+        TestClass obj = new TestClass("key_filter_saved");
+        Assert.assertFalse(obj.exists());
+        
+        obj.intValue = 10;
+        Assert.assertTrue(obj.save());
+        
+        TestClass loaded = new TestClass("key_filter_saved");
+        Assert.assertTrue(loaded.exists());
+        Assert.assertTrue(loaded.load());
+        Assert.assertEquals(10, loaded.intValue);
+    }
+    
+    @Test
+    public void testRebuildAfterDelete() {
+        datastore.enableKeyFilter(TestClass.class, 1000, 0.01);
+        
+        TestClass obj = new TestClass("key_filter_deleted");
+        Assert.assertTrue(obj.save());
+        Assert.assertTrue(obj.delete());
+        
+        /* filter still reports the key, database answers */
+        Assert.assertTrue(datastore.mightExist(obj.getKey()));
+        Assert.assertFalse(new TestClass("key_filter_deleted").exists());
+        
+        datastore.rebuildKeyFilter(TestClass.class);
+        Assert.assertFalse(datastore.mightExist(obj.getKey()));
+        Assert.assertFalse(new TestClass("key_filter_deleted").exists());
+    }
+}
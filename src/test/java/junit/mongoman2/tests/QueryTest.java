@@ -23,20 +23,34 @@
  */
 package junit.mongoman2.tests;
 
+import com.mongodb.ReadPreference;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.Collectors;
 import junit.mongoman2.Helper;
 import junit.mongoman2.db.NestedClass;
 import org.junit.*;
 
 import junit.mongoman2.db.TestClass;
 import org.bson.Document;
+import org.mongoman2.Aggregation;
+import org.mongoman2.Base;
+import org.mongoman2.CausalSession;
 import org.mongoman2.Cursor;
 import org.mongoman2.Filter;
+import org.mongoman2.Key;
+import org.mongoman2.KeyCursor;
 import org.mongoman2.MongomanException;
+import org.mongoman2.Page;
+import org.mongoman2.PreparedQuery;
 import org.mongoman2.Query;
+import org.mongoman2.QueryCacheStats;
+import org.mongoman2.QueryPlan;
 
 /**
  *
@@ -614,6 +628,71 @@ public class QueryTest extends BaseTest {
         System.out.println("Test passed: Keys-only query projection verified successfully.");
     }
 
+    @Test
+    public void testSaveAfterProjectionQuery() {
+        // Step 1: Save an object with several fields populated
+        TestClass testObj = new TestClass("projection_save_001");
+        testObj.intValue = 100;
+        testObj.stringValue = "Projection Save";
+        testObj.enumValue = TestClass.TestEnum.VALUE3;
+        testObj.save();
+
+        // Step 2: Query with a projection and modify the result
+        Query<TestClass> query = new Query<>(TestClass.class);
+        query.addProjection("intValue");
+
+        TestClass result = query.execute(datastore).one();
+        Assert.assertTrue(result.isPartial());
+        Assert.assertNull(result.stringValue);
+
+        result.intValue = 150;
+        result.save(datastore);
+
+        // Step 3: Fields outside the projection must not be wiped
+        TestClass loaded = new TestClass("projection_save_001");
+        Assert.assertTrue(loaded.load());
+        Assert.assertEquals(150, loaded.intValue);
+        Assert.assertEquals("Projection Save", loaded.stringValue);
+        Assert.assertEquals(TestClass.TestEnum.VALUE3, loaded.enumValue);
+    }
+
+    @Test
+    public void testExecuteKeysAndLoadAll() {
+        // Step 1: Create and save objects, only some of them match the filter
+        for (int i = 0; i < 10; i++) {
+            TestClass obj = new TestClass("execute_keys_00" + i);
+            obj.intValue = i;
+            obj.stringValue = "Object " + i;
+            obj.save();
+        }
+
+        // Step 2: Fetch only the keys of the matching objects
+        Query<TestClass> query = new Query<>(TestClass.class);
+        query.setFilter(query.createFilter("intValue", Query.FilterOperator.GREATER_THAN_OR_EQUAL, 5));
+        query.addSort("uniqueId", Query.SortDirection.ASC);
+
+        KeyCursor cursor = query.executeKeys(datastore);
+
+        List<Key> keys = new ArrayList<>();
+        while (cursor.hasNext()) {
+            keys.add(cursor.next());
+        }
+
+        Assert.assertEquals(5, keys.size());
+        Assert.assertEquals(new TestClass("execute_keys_005").getKey(), keys.get(0));
+        Assert.assertEquals(new TestClass("execute_keys_009").getKey(), keys.get(4));
+
+        // Step 3: Hydrate a subset of the keys, missing keys are omitted
+        List<Key> subset = new ArrayList<>(keys.subList(1, 3));
+        subset.add(new TestClass("execute_keys_missing").getKey());
+
+        Map<Key, TestClass> loaded = Base.loadAll(datastore, subset);
+
+        Assert.assertEquals(2, loaded.size());
+        Assert.assertEquals(6, loaded.get(keys.get(1)).intValue);
+        Assert.assertEquals("Object 7", loaded.get(keys.get(2)).stringValue);
+    }
+
     @Test
     public void testQueryWithoutFilterRetrievesAllResults() {
         // Step 1: Create and save multiple objects in the collection
@@ -747,6 +826,787 @@ public class QueryTest extends BaseTest {
 
         System.out.println("Test passed: Cursor correctly counted the number of seen objects at each step.");
     }
+
+    @Test
+    public void testPipelinedDecode() {
+        // Step 1: Create and save enough objects to span several decode chunks
+        for (int i = 0; i < 500; i++) {
+            TestClass obj = new TestClass(String.format("pipelined_%03d", i));
+            obj.intValue = i;
+            obj.intList = Arrays.asList(i, i + 1);
+            obj.save();
+        }
+
+        // Step 2: Ordered delivery keeps the sort of the query
+        Query<TestClass> query = new Query<>(TestClass.class);
+        query.addSort("intValue", Query.SortDirection.ASC);
+        query.setBatch(100);
+        query.setDecodeThreads(4);
+
+        int expected = 0;
+        try (Cursor<TestClass> cursor = query.execute(datastore)) {
+            while (cursor.hasNext()) {
+                TestClass obj = cursor.next();
+                Assert.assertEquals(expected, obj.intValue);
+                Assert.assertEquals(Arrays.asList(expected, expected + 1), obj.intList);
+                expected++;
+            }
+            Assert.assertEquals(500, cursor.numSeen());
+        }
+        Assert.assertEquals(500, expected);
+
+        // Step 3: Unordered delivery returns every object once
+        query.setOrderedDecode(false);
+
+        Set<Integer> values = new HashSet<>();
+        try (Cursor<TestClass> cursor = query.execute(datastore)) {
+            for (TestClass obj : cursor) {
+                Assert.assertTrue(values.add(obj.intValue));
+            }
+        }
+        Assert.assertEquals(500, values.size());
+
+        // Step 4: Closing early stops the pipeline
+        query.setOrderedDecode(true);
+
+        Cursor<TestClass> cursor = query.execute(datastore);
+        Assert.assertEquals(0, cursor.next().intValue);
+        cursor.close();
+        Assert.assertFalse(cursor.hasNext());
+    }
+
+    @Test
+    public void testPrefetch() {
+        // Step 1: Create and save objects spanning several batches
+        for (int i = 0; i < 200; i++) {
+            TestClass obj = new TestClass(String.format("prefetch_%03d", i));
+            obj.intValue = i;
+            obj.stringValue = "Prefetched " + i;
+            obj.save();
+        }
+
+        // Step 2: A small read ahead budget still returns every object in order
+        Query<TestClass> query = new Query<>(TestClass.class);
+        query.addSort("intValue", Query.SortDirection.ASC);
+        query.setBatch(10);
+        query.setPrefetch(2048);
+
+        int expected = 0;
+        try (Cursor<TestClass> cursor = query.execute(datastore)) {
+            for (TestClass obj : cursor) {
+                Assert.assertEquals(expected, obj.intValue);
+                Assert.assertEquals("Prefetched " + expected, obj.stringValue);
+                expected++;
+            }
+        }
+        Assert.assertEquals(200, expected);
+
+        // Step 3: Prefetching composes with pipelined decoding
+        query.setDecodeThreads(2);
+
+        try (Cursor<TestClass> cursor = query.execute(datastore)) {
+            Assert.assertEquals(200, cursor.stream().count());
+        }
+
+        // Step 4: Closing early cancels the read ahead
+        Cursor<TestClass> cursor = query.setDecodeThreads(0).execute(datastore);
+        Assert.assertEquals(0, cursor.next().intValue);
+        cursor.close();
+        Assert.assertFalse(cursor.hasNext());
+    }
+
+    @Test
+    public void testParallelScan() {
+        // Step 1: Create and save objects, half of them match the filter
+        List<TestClass> objects = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            TestClass obj = new TestClass(String.format("parallel_%04d", i));
+            obj.intValue = i;
+            obj.booleanValue = i % 2 == 0;
+            objects.add(obj);
+        }
+        Base.saveAll(datastore, objects);
+
+        Query<TestClass> query = new Query<>(TestClass.class);
+        query.setFilter(query.createFilter("booleanValue", Query.FilterOperator.EQUAL, true));
+
+        // Step 2: The _id space is split in several ranges
+        List<Cursor<TestClass>> partitions = query.executePartitioned(datastore, 4);
+        Assert.assertTrue(partitions.size() > 1);
+        Assert.assertTrue(partitions.size() <= 4);
+
+        int total = 0;
+        for (Cursor<TestClass> partition : partitions) {
+            total += partition.stream().count();
+        }
+        Assert.assertEquals(500, total);
+
+        // Step 3: The merged cursor returns every matching object once
+        Set<Integer> values = new HashSet<>();
+        try (Cursor<TestClass> cursor = query.executeParallel(datastore, 4)) {
+            for (TestClass obj : cursor) {
+                Assert.assertTrue(obj.booleanValue);
+                Assert.assertTrue(values.add(obj.intValue));
+            }
+        }
+        Assert.assertEquals(500, values.size());
+
+        // Step 4: The limit applies to the merged results
+        query.setLimit(10);
+        try (Cursor<TestClass> cursor = query.executeParallel(datastore, 4)) {
+            Assert.assertEquals(10, cursor.stream().count());
+        }
+
+        // Step 5: Skipping needs a sort
+        query.setSkip(5);
+        try {
+            query.executeParallel(datastore, 4);
+            Assert.fail("Expected MongomanException for skip without a sort.");
+        } catch (MongomanException e) {
+            // Test passed
+        }
+    }
+
+    @Test
+    public void testMergeSortFollowsServerOrder() {
+        // Step 1: Strings whose UTF-16 order differs from their code point order
+        List<String> strings = Arrays.asList("a", "\uFFFF", "\uD83D\uDE00", "\uE000");
+        List<TestClass> objects = new ArrayList<>();
+        for (int i = 0; i < strings.size(); i++) {
+            TestClass obj = new TestClass("merge_order_" + i);
+            obj.stringValue = strings.get(i);
+            objects.add(obj);
+        }
+        Base.saveAll(datastore, objects);
+
+        Query<TestClass> query = new Query<>(TestClass.class);
+        query.setFilter(query.createFilter("stringValue", Query.FilterOperator.IN, strings));
+        query.addSort("stringValue", Query.SortDirection.ASC);
+
+        // Step 2: Merged results come in the order the server sorts them
+        List<String> expected = query.execute(datastore).stream().map(obj -> obj.stringValue).collect(Collectors.toList());
+        List<String> merged = query.executeMerged(datastore, datastore).stream().map(obj -> obj.stringValue).collect(Collectors.toList());
+
+        Assert.assertEquals(4, expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i), merged.get(2 * i));
+            Assert.assertEquals(expected.get(i), merged.get(2 * i + 1));
+        }
+
+        // Step 3: Array sort values, ordered by their smallest or largest element on the server, are refused
+        List<String> ids = new ArrayList<>();
+        List<TestClass> arrays = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            TestClass obj = new TestClass("merge_array_" + i);
+            obj.intList = Arrays.asList(3 - i, 10 * i);
+            obj.fullySavedNestedObjectArray = new NestedClass[] { new NestedClass("merge_array_nested_" + i) };
+            ids.add(obj.uniqueId);
+            arrays.add(obj);
+        }
+        Base.saveAll(datastore, arrays);
+
+        for (String path : Arrays.asList("intList", "fullySavedNestedObjectArray.nestedInt")) {
+            Query<TestClass> arrayQuery = new Query<>(TestClass.class);
+            arrayQuery.setFilter(arrayQuery.createFilter("uniqueId", Query.FilterOperator.IN, ids));
+            arrayQuery.addSort(path, Query.SortDirection.ASC);
+
+            try {
+                arrayQuery.executeMerged(datastore, datastore).stream().count();
+                Assert.fail("Expected MongomanException for merging on array values of " + path + ".");
+            } catch (MongomanException e) {
+                // Test passed
+            }
+        }
+    }
+
+    @Test
+    public void testSortedParallelMerge() {
+        // Step 1: Create and save objects with shuffled values
+        List<TestClass> objects = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            TestClass obj = new TestClass(String.format("merge_%04d", i));
+            obj.intValue = (i * 7919) % 1000;
+            objects.add(obj);
+        }
+        Base.saveAll(datastore, objects);
+
+        // Step 2: Partitions are merged back in sort order
+        Query<TestClass> query = new Query<>(TestClass.class);
+        query.addSort("intValue", Query.SortDirection.DESC);
+
+        List<Integer> values = new ArrayList<>();
+        try (Cursor<TestClass> cursor = query.executeParallel(datastore, 4)) {
+            for (TestClass obj : cursor) {
+                values.add(obj.intValue);
+            }
+        }
+        Assert.assertEquals(1000, values.size());
+        for (int i = 0; i < values.size(); i++) {
+            Assert.assertEquals(999 - i, (int) values.get(i));
+        }
+
+        // Step 3: Skip and limit apply to the merged results
+        query.setSkip(100);
+        query.setLimit(5);
+        List<Integer> page = query.executeParallel(datastore, 4).stream()
+                                  .map(obj -> obj.intValue)
+                                  .collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(899, 898, 897, 896, 895), page);
+
+        // Step 4: Results of several datastores are merged in sort order
+        query.setSkip(0);
+        query.setLimit(6);
+        List<Integer> merged = query.executeMerged(datastore, datastore).stream()
+                                    .map(obj -> obj.intValue)
+                                    .collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(999, 999, 998, 998, 997, 997), merged);
+    }
+
+    @Test
+    public void testKeysetPagination() {
+        // Step 1: Create and save objects, sort values repeat across objects
+        List<TestClass> objects = new ArrayList<>();
+        for (int i = 0; i < 95; i++) {
+            TestClass obj = new TestClass(String.format("page_%03d", i));
+            obj.intValue = i % 10;
+            obj.stringValue = "value_" + i;
+            objects.add(obj);
+        }
+        Base.saveAll(datastore, objects);
+
+        Query<TestClass> query = new Query<>(TestClass.class);
+        query.addSort("intValue", Query.SortDirection.DESC);
+        query.addProjection("stringValue");
+        query.setLimit(10);
+
+        // Step 2: Page through the results using continuation tokens
+        Set<String> seen = new HashSet<>();
+        int previous = Integer.MAX_VALUE;
+        int pages = 0;
+        String token = null;
+
+        while (true) {
+            query.after(token);
+            Cursor<TestClass> cursor = query.execute(datastore);
+            List<TestClass> page = cursor.nextBatch(10);
+
+            if (page.isEmpty()) {
+                Assert.assertEquals(token, cursor.continuationToken());
+                break;
+            }
+
+            for (TestClass obj : page) {
+                Assert.assertTrue(obj.intValue <= previous);
+                Assert.assertTrue(seen.add(obj.uniqueId));
+                previous = obj.intValue;
+            }
+
+            token = cursor.continuationToken();
+            pages++;
+        }
+
+        Assert.assertEquals(95, seen.size());
+        Assert.assertEquals(10, pages);
+
+        // Step 3: Tokens are bound to the sort of the query
+        Query<TestClass> other = new Query<>(TestClass.class);
+        other.addSort("stringValue", Query.SortDirection.ASC);
+        other.after(token);
+        try {
+            other.execute(datastore);
+            Assert.fail("Expected MongomanException for a token of a different sort.");
+        } catch (MongomanException e) {
+            // Test passed
+        }
+
+        try {
+            query.after("not a token").execute(datastore);
+            Assert.fail("Expected MongomanException for an invalid token.");
+        } catch (MongomanException e) {
+            // Test passed
+        }
+    }
+
+    @Test
+    public void testPreparedQuery() throws Exception {
+        // Step 1: Create and save objects
+        List<TestClass> objects = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            TestClass obj = new TestClass(String.format("prepared_%03d", i));
+            obj.intValue = i;
+            obj.enumValue = TestClass.TestEnum.values()[i % 3];
+            objects.add(obj);
+        }
+        Base.saveAll(datastore, objects);
+
+        // Step 2: Prepare a query with placeholders
+        Query<TestClass> query = new Query<>(TestClass.class);
+        query.setFilter(query.createFilter(Query.FilterOperator.AND,
+            query.createFilter("intValue", Query.FilterOperator.GREATER_THAN_OR_EQUAL, Query.param("min")),
+            query.createFilter("intValue", Query.FilterOperator.LESS_THAN, Query.param("max")),
+            query.createFilter("enumValue", Query.FilterOperator.EQUAL, Query.param("type"))
+        ));
+        query.addSort("intValue", Query.SortDirection.ASC);
+
+        PreparedQuery<TestClass> prepared = query.prepare();
+        Assert.assertEquals(Arrays.asList("min", "max", "type"), prepared.getParams());
+
+        // Step 3: Bind different values, enums are converted like regular filter values
+        List<Integer> values = prepared.execute(datastore, "min", 10, "max", 20, "type", TestClass.TestEnum.VALUE1)
+                                       .stream().map(obj -> obj.intValue).collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(12, 15, 18), values);
+
+        values = prepared.execute(datastore, "min", 0, "max", 5, "type", TestClass.TestEnum.VALUE2)
+                         .stream().map(obj -> obj.intValue).collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(1, 4), values);
+
+        // Step 4: Concurrent executions do not share bound values
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < 4; t++) {
+            int min = t * 25;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int run = 0; run < 20; run++) {
+                        long count = prepared.execute(datastore, "min", min, "max", min + 25, "type", TestClass.TestEnum.VALUE3)
+                                             .stream().filter(obj -> obj.intValue >= min && obj.intValue < min + 25).count();
+                        Assert.assertTrue(count >= 8);
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertTrue(errors.isEmpty());
+
+        // Step 5: All parameters must be bound
+        try {
+            prepared.execute(datastore, "min", 0, "max", 5);
+            Assert.fail("Expected MongomanException for a missing parameter.");
+        } catch (MongomanException e) {
+            // Test passed
+        }
+
+        // Step 6: Bound values are checked against the field like in createFilter
+        try {
+            prepared.execute(datastore, "min", 0, "max", 5, "type", "INVALID");
+            Assert.fail("Expected MongomanException for an invalid enum name.");
+        } catch (MongomanException e) {
+            // Test passed
+        }
+
+        // Step 7: Paged queries can not be prepared
+        try {
+            new Query<>(TestClass.class).after(null).prepare();
+            Assert.fail("Expected MongomanException for a paged query.");
+        } catch (MongomanException e) {
+            // Test passed
+        }
+    }
+
+    @Test
+    public void testFilterValueConversion() {
+        Query<TestClass> query = new Query<>(TestClass.class);
+
+        /* Enum names are checked against the enum of the field */
+        Filter filter = query.createFilter("enumValue", Query.FilterOperator.EQUAL, "VALUE2");
+        Assert.assertEquals("VALUE2", ((Document) Document.parse(filter.toString()).get("enumValue")).get("$eq"));
+
+        try {
+            query.createFilter("enumValue", Query.FilterOperator.EQUAL, "INVALID");
+            Assert.fail("Expected MongomanException for an invalid enum name.");
+        } catch (MongomanException e) {
+            // Test passed
+        }
+
+        /* Collections are converted element by element */
+        filter = query.createFilter("enumValue", Query.FilterOperator.IN, Arrays.asList(TestClass.TestEnum.VALUE1, "VALUE3"));
+        Assert.assertEquals(Arrays.asList("VALUE1", "VALUE3"), ((Document) Document.parse(filter.toString()).get("enumValue")).get("$in"));
+
+        /* Invalid paths keep failing once cached */
+        for (int i = 0; i < 2; i++) {
+            try {
+                query.createFilter("nonExistentField", Query.FilterOperator.EQUAL, "value");
+                Assert.fail("Expected MongomanException for a non-existent field in TestClass.");
+            } catch (MongomanException e) {
+                // Test passed
+            }
+        }
+    }
+
+    @Test
+    public void testQueryCache() {
+        // Step 1: Create and save objects
+        List<TestClass> objects = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            TestClass obj = new TestClass(String.format("cached_%02d", i));
+            obj.intValue = i;
+            objects.add(obj);
+        }
+        Base.saveAll(datastore, objects);
+
+        datastore.enableQueryCache(TestClass.class, 10, 1024 * 1024);
+
+        try {
+            Query<TestClass> query = new Query<>(TestClass.class);
+            query.setFilter(query.createFilter("intValue", Query.FilterOperator.LESS_THAN, 5));
+            query.addSort("intValue", Query.SortDirection.ASC);
+
+            // Step 2: Repeated executions return the same results as fresh objects
+            List<TestClass> first = query.execute(datastore).stream().collect(Collectors.toList());
+            List<TestClass> second = query.execute(datastore).stream().collect(Collectors.toList());
+            Assert.assertEquals(5, first.size());
+            Assert.assertEquals(first, second);
+            Assert.assertNotSame(first.get(0), second.get(0));
+            QueryCacheStats stats = datastore.getQueryCacheStats(TestClass.class);
+            Assert.assertEquals(1, stats.getHits());
+            Assert.assertEquals(1, stats.getMisses());
+
+            // Step 3: Saving through the datastore drops the cached results
+            TestClass added = new TestClass("cached_new");
+            added.intValue = -1;
+            added.save(datastore);
+
+            List<TestClass> third = query.execute(datastore).stream().collect(Collectors.toList());
+            Assert.assertEquals(6, third.size());
+            Assert.assertEquals(-1, third.get(0).intValue);
+
+            // Step 4: Deleting does the same
+            added.delete(datastore);
+            Assert.assertEquals(5, query.execute(datastore).stream().count());
+        } finally {
+            datastore.disableQueryCache(TestClass.class);
+        }
+        
+        Assert.assertNull(datastore.getQueryCacheStats(TestClass.class));
+    }
+
+    @Test
+    public void testExecuteWithCount() {
+        // Step 1: Create and save objects
+        List<TestClass> objects = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            TestClass obj = new TestClass(String.format("facet_%02d", i));
+            obj.intValue = i;
+            objects.add(obj);
+        }
+        Base.saveAll(datastore, objects);
+
+        Query<TestClass> query = new Query<>(TestClass.class);
+        query.setFilter(query.createFilter("intValue", Query.FilterOperator.GREATER_THAN_OR_EQUAL, 10));
+        query.addSort("intValue", Query.SortDirection.ASC);
+        query.setSkip(5).setLimit(10);
+
+        // Step 2: The page and the total come back together
+        Page<TestClass> page = query.executeWithCount(datastore);
+        Assert.assertEquals(40, page.getTotal());
+        Assert.assertTrue(page.isExact());
+        Assert.assertEquals(10, page.getItems().size());
+        Assert.assertEquals(15, page.getItems().get(0).intValue);
+        Assert.assertEquals(24, page.getItems().get(9).intValue);
+
+        // Step 3: A capped count stops at the cap
+        page = query.executeWithCount(datastore, 20);
+        Assert.assertEquals(20, page.getTotal());
+        Assert.assertFalse(page.isExact());
+
+        // Step 4: size applies skip and limit on the server
+        Assert.assertEquals(10, query.size(datastore));
+        query.setSkip(35);
+        Assert.assertEquals(5, query.size(datastore));
+
+        // Step 5: Paged queries are refused instead of returning their first page
+        Query<TestClass> paged = new Query<>(TestClass.class);
+        paged.addSort("intValue", Query.SortDirection.ASC).setLimit(10);
+        paged.after(null);
+        try {
+            paged.executeWithCount(datastore);
+            Assert.fail("Expected MongomanException for counting a paged query.");
+        } catch (MongomanException e) {
+            // Test passed
+        }
+    }
+
+    public static class EnumTotal {
+        public TestClass.TestEnum _id;
+        public long total;
+        public int count;
+    }
+
+    @Test
+    public void testAggregation() {
+        // Step 1: Create and save objects
+        List<TestClass> objects = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            TestClass obj = new TestClass(String.format("aggregate_%02d", i));
+            obj.intValue = i;
+            obj.enumValue = TestClass.TestEnum.values()[i % 3];
+            obj.intList = Arrays.asList(i, i + 100);
+            objects.add(obj);
+        }
+        Base.saveAll(datastore, objects);
+
+        Query<TestClass> query = new Query<>(TestClass.class);
+        query.setFilter(query.createFilter("intValue", Query.FilterOperator.LESS_THAN, 30));
+
+        // Step 2: Group into a result class, enum values are decoded
+        List<EnumTotal> totals = query.aggregate()
+                                      .group("enumValue", Aggregation.sum("total", "intValue"), Aggregation.count("count"))
+                                      .sort("_id", Query.SortDirection.ASC)
+                                      .execute(datastore, EnumTotal.class)
+                                      .stream().collect(Collectors.toList());
+
+        Assert.assertEquals(3, totals.size());
+        Assert.assertEquals(TestClass.TestEnum.VALUE1, totals.get(0)._id);
+        Assert.assertEquals(135, totals.get(0).total);  // 0 + 3 + ... + 27
+        Assert.assertEquals(10, totals.get(0).count);
+
+        // Step 3: Unwind arrays and bucket the values
+        List<Document> buckets = query.aggregate()
+                                      .unwind("intList")
+                                      .bucket("intList", Arrays.asList(0, 100, 200), null, Aggregation.count("count"))
+                                      .execute(datastore, Document.class)
+                                      .stream().collect(Collectors.toList());
+
+        Assert.assertEquals(2, buckets.size());
+        Assert.assertEquals(30, ((Number) buckets.get(0).get("count")).intValue());
+        Assert.assertEquals(30, ((Number) buckets.get(1).get("count")).intValue());
+
+        // Step 4: Field paths of the kind are validated
+        try {
+            query.aggregate().group("nonExistentField", Aggregation.count("count"));
+            Assert.fail("Expected MongomanException for a non-existent field in TestClass.");
+        } catch (MongomanException e) {
+            // Test passed
+        }
+    }
+
+    @Test
+    public void testDistinct() {
+        // Step 1: Create and save objects
+        List<TestClass> objects = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            TestClass obj = new TestClass(String.format("distinct_%02d", i));
+            obj.intValue = i;
+            obj.enumValue = TestClass.TestEnum.values()[i % 3];
+            obj.intList = Arrays.asList(i % 4, 10);
+            objects.add(obj);
+        }
+        Base.saveAll(datastore, objects);
+
+        Query<TestClass> query = new Query<>(TestClass.class);
+
+        // Step 2: Enum values are decoded
+        List<TestClass.TestEnum> enums = query.distinct(datastore, "enumValue", TestClass.TestEnum.class)
+                                              .stream().collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(TestClass.TestEnum.values()), enums);
+
+        // Step 3: Collections return their elements, the filter applies
+        query.setFilter(query.createFilter("intValue", Query.FilterOperator.LESS_THAN, 2));
+        List<Integer> values = query.distinct(datastore, "intList", Integer.class)
+                                    .stream().collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList(0, 1, 10), values);
+
+        // Step 4: Indexed key fields come back sorted
+        List<String> ids = query.distinct(datastore, "uniqueId", String.class)
+                                .stream().collect(Collectors.toList());
+        Assert.assertEquals(Arrays.asList("distinct_00", "distinct_01"), ids);
+
+        // Step 5: Objects missing the field add no null value
+        datastore.getCollection(TestClass.getKind(TestClass.class)).insertMany(Arrays.asList(
+                new Document("uniqueId", "distinct_raw_1").append("intValue", 100).append("stringValue", "raw"),
+                new Document("uniqueId", "distinct_raw_2").append("intValue", 101)));
+        query.setFilter(query.createFilter("intValue", Query.FilterOperator.GREATER_THAN_OR_EQUAL, 100));
+        List<String> strings = query.distinct(datastore, "stringValue", String.class)
+                                    .stream().collect(Collectors.toList());
+        Assert.assertEquals(Collections.singletonList("raw"), strings);
+    }
+
+    @Test
+    public void testExplainAndQueryGuard() {
+        // Step 1: Create and save objects
+        List<TestClass> objects = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            TestClass obj = new TestClass(String.format("explain_%03d", i));
+            obj.intValue = i;
+            objects.add(obj);
+        }
+        Base.saveAll(datastore, objects);
+
+        // Step 2: Key lookups use the key index
+        Query<TestClass> byKey = new Query<>(TestClass.class);
+        byKey.setFilter(byKey.createFilter("uniqueId", Query.FilterOperator.EQUAL, "explain_042"));
+
+        QueryPlan plan = byKey.explain(datastore);
+        Assert.assertFalse(plan.isCollectionScan());
+        Assert.assertNotNull(plan.getWinningIndex());
+        Assert.assertEquals(1, plan.getReturned());
+
+        // Step 3: Filters on fields without an index scan the collection
+        Query<TestClass> byValue = new Query<>(TestClass.class);
+        byValue.setFilter(byValue.createFilter("intValue", Query.FilterOperator.EQUAL, 42));
+
+        plan = byValue.explain(datastore);
+        Assert.assertTrue(plan.isCollectionScan());
+        Assert.assertNull(plan.getWinningIndex());
+        Assert.assertEquals(100, plan.getDocsExamined());
+
+        // Step 4: The guard rejects query shapes scanning too many documents per result
+        datastore.enableQueryGuard(10, 1, true);
+        try {
+            Assert.assertEquals(1, byKey.execute(datastore).stream().count());
+
+            try {
+                byValue.execute(datastore);
+                Assert.fail("Expected MongomanException for a collection scan.");
+            } catch (MongomanException e) {
+                // Test passed
+            }
+
+            /* same shape with another value is rejected without explaining again */
+            byValue.setFilter(byValue.createFilter("intValue", Query.FilterOperator.EQUAL, 7));
+            try {
+                byValue.execute(datastore);
+                Assert.fail("Expected MongomanException for a collection scan.");
+            } catch (MongomanException e) {
+                // Test passed
+            }
+        } finally {
+            datastore.disableQueryGuard();
+        }
+
+        Assert.assertEquals(1, byValue.execute(datastore).stream().count());
+    }
+
+    @Test
+    public void testReadPreferenceAndCausalSession() {
+        // Step 1: Max staleness is rejected for primary reads
+        try {
+            datastore.setReadPreference(ReadPreference.primary(), 90);
+            Assert.fail("Expected MongomanException for max staleness on primary reads.");
+        } catch (MongomanException e) {
+            // Test passed
+        }
+
+        // Step 2: Writes made in a causal session are visible to secondary reads of the session
+        try (CausalSession session = datastore.startCausalSession()) {
+            TestClass obj = new TestClass("read_preference_001");
+            obj.intValue = 42;
+            Assert.assertTrue(obj.save(datastore));
+
+            Query<TestClass> query = new Query<>(TestClass.class);
+            query.setFilter(query.createFilter("uniqueId", Query.FilterOperator.EQUAL, "read_preference_001"));
+            query.setReadPreference(ReadPreference.secondaryPreferred(), 90);
+
+            List<TestClass> result = query.execute(datastore).nextBatch(10);
+            Assert.assertEquals(1, result.size());
+            Assert.assertEquals(42, result.get(0).intValue);
+            Assert.assertEquals(1, query.count(datastore));
+
+            Assert.assertTrue(session.getClientSession().isCausallyConsistent());
+            Assert.assertNotNull(session.getClientSession().getOperationTime());
+        }
+
+        // Step 3: Loads use the default read preference of the datastore
+        datastore.setReadPreference(ReadPreference.primaryPreferred());
+        try {
+            TestClass loaded = new TestClass("read_preference_001");
+            Assert.assertTrue(loaded.load(datastore));
+            Assert.assertEquals(42, loaded.intValue);
+        } finally {
+            datastore.setReadPreference(null);
+        }
+    }
+
+    @Test
+    public void testMaxTimeAndCancel() {
+        // Step 1: Create and save objects
+        List<TestClass> objects = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            TestClass obj = new TestClass(String.format("cancel_%03d", i));
+            obj.intValue = i;
+            objects.add(obj);
+        }
+        Base.saveAll(datastore, objects);
+
+        // Step 2: Queries within their time budget run as usual
+        datastore.setMaxTime(60000);
+        try {
+            Query<TestClass> query = new Query<>(TestClass.class);
+            query.setMaxTime(30000);
+            Assert.assertEquals(50, query.count(datastore));
+            Assert.assertEquals(50, query.execute(datastore).nextBatch(100).size());
+        } finally {
+            datastore.setMaxTime(0);
+        }
+
+        // Step 3: A cancelled cursor fails on its next call
+        Query<TestClass> query = new Query<>(TestClass.class);
+        query.setBatch(10);
+
+        Cursor<TestClass> cursor = query.execute(datastore);
+        Assert.assertNotNull(cursor.next());
+
+        cursor.cancel();
+        Assert.assertTrue(cursor.isCancelled());
+
+        try {
+            cursor.next();
+            Assert.fail("Expected MongomanException for a cancelled cursor.");
+        } catch (MongomanException e) {
+            // Test passed
+        }
+    }
+
+    @Test
+    public void testCursorIterableStreamAndBatch() {
+        // Step 1: Create and save objects for iteration
+        for (int i = 0; i < 25; i++) {
+            TestClass obj = new TestClass(String.format("cursor_stream_%03d", i));
+            obj.intValue = i;
+            obj.save();
+        }
+
+        Query<TestClass> query = new Query<>(TestClass.class);
+        query.addSort("intValue", Query.SortDirection.ASC);
+
+        // Step 2: for-each over the cursor
+        int expected = 0;
+        try (Cursor<TestClass> cursor = query.execute(datastore)) {
+            for (TestClass obj : cursor) {
+                Assert.assertEquals(expected++, obj.intValue);
+            }
+        }
+        Assert.assertEquals(25, expected);
+
+        // Step 3: nextBatch drains at most max objects
+        try (Cursor<TestClass> cursor = query.execute(datastore)) {
+            List<TestClass> batch = cursor.nextBatch(10);
+            Assert.assertEquals(10, batch.size());
+            Assert.assertEquals(0, batch.get(0).intValue);
+            Assert.assertEquals(10, cursor.nextBatch(10).size());
+            Assert.assertEquals(5, cursor.nextBatch(10).size());
+            Assert.assertTrue(cursor.nextBatch(10).isEmpty());
+        }
+
+        // Step 4: parallel stream keeps the order of the query
+        try (Cursor<TestClass> cursor = query.execute(datastore)) {
+            List<Integer> values = cursor.setSplitSize(4)
+                                         .stream(true)
+                                         .map(obj -> obj.intValue)
+                                         .collect(Collectors.toList());
+
+            Assert.assertEquals(25, values.size());
+            for (int i = 0; i < values.size(); i++) {
+                Assert.assertEquals(i, (int) values.get(i));
+            }
+        }
+    }
     
     @Test
     public void testCursorCurr() {
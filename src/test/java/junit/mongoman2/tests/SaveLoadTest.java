@@ -24,11 +24,22 @@
 package junit.mongoman2.tests;
 
 import com.mongodb.MongoWriteException;
+import com.mongodb.ReadPreference;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.model.IndexOptions;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.junit.*;
 
 import junit.mongoman2.Helper;
 import junit.mongoman2.db.*;
+import org.bson.Document;
+import org.mongoman2.Base;
+import org.mongoman2.Datastore;
+import org.mongoman2.HedgeStats;
 import org.mongoman2.MongomanException;
 
 /**
@@ -601,4 +612,221 @@ public class SaveLoadTest extends BaseTest {
         Assert.assertEquals("New String", loadedObj.stringValue);  // New value should be present
     }
 
+    @Test
+    public void saveAndLoad_keyAsId() {
+        datastore.getCollection(KeyIdClass.getKind(KeyIdClass.class)).deleteMany(new Document());
+
+        // Step 1: Save an object whose key is used as _id
+        KeyIdClass obj = new KeyIdClass("key_id_001", 1);
+        obj.stringValue = "Key Id";
+        obj.intValue = 10;
+        Assert.assertTrue(obj.save());
+
+        // Step 2: Verify the _id is derived from the key fields
+        Document stored = datastore.getCollection(KeyIdClass.getKind(KeyIdClass.class)).find().first();
+        Assert.assertEquals(new Document("name", "key_id_001").append("version", 1), stored.get("_id"));
+
+        // Step 3: Load, exists and update go through the _id
+        KeyIdClass loaded = new KeyIdClass("key_id_001", 1);
+        Assert.assertTrue(loaded.exists());
+        Assert.assertTrue(loaded.load());
+        Assert.assertEquals("Key Id", loaded.stringValue);
+        Assert.assertEquals(10, loaded.intValue);
+
+        loaded.intValue = 20;
+        Assert.assertFalse(loaded.save());
+
+        KeyIdClass reloaded = new KeyIdClass("key_id_001", 1);
+        Assert.assertTrue(reloaded.load());
+        Assert.assertEquals(20, reloaded.intValue);
+
+        // Step 4: A different version is a different key
+        Assert.assertFalse(new KeyIdClass("key_id_001", 2).exists());
+
+        // Step 5: Saving a new object with the same key fails on the _id index
+        try {
+            new KeyIdClass("key_id_001", 1).save();
+            Assert.fail("Expected an exception due to saving an object with a duplicate key.");
+        } catch (MongoWriteException e) {
+            System.out.println("Caught expected exception: " + e.getMessage());
+        }
+
+        // Step 6: Delete by key
+        Assert.assertTrue(new KeyIdClass("key_id_001", 1).delete());
+        Assert.assertFalse(new KeyIdClass("key_id_001", 1).exists());
+    }
+
+    @Test
+    public void testKeyAsIdHasNoKeyIndex() {
+        for (Document index : datastore.getCollection(KeyIdClass.getKind(KeyIdClass.class)).listIndexes()) {
+            Assert.assertNotEquals("__key_", index.getString("name"));
+        }
+    }
+
+    @Test
+    public void testKeyAsIdSwitchIsRefused() {
+        // Step 1: Leave a key index like objects saved without keyAsId would
+        String kind = KeyIdClass.getKind(KeyIdClass.class);
+        datastore.getCollection(kind).createIndex(new Document("name", 1).append("version", 1), new IndexOptions().name("__key_"));
+
+        // Step 2: The kind is not set up while it holds objects of the other mode
+        try {
+            Datastore fresh = new Datastore(datastore.getMongoClient(), datastore.name);
+            fresh.getCollection(kind);
+            Assert.fail("Expected MongomanException for switching keyAsId on existing objects.");
+        } catch (MongomanException e) {
+            // Test passed
+        } finally {
+            datastore.getCollection(kind).dropIndex("__key_");
+        }
+    }
+
+    @Test
+    public void saveAndLoad_partialLoadKeepsUnloadedFields() {
+        // Step 1: Save a fully populated object
+        TestClass originalObj = new TestClass("partial_load_001");
+        originalObj.intValue = 100;
+        originalObj.stringValue = "Original String";
+        originalObj.intList = Arrays.asList(1, 2, 3);
+        originalObj.stringDoubleMap = new HashMap<>();
+        originalObj.stringDoubleMap.put("a", 1.0);
+        originalObj.stringDoubleMap.put("b", 2.0);
+        Assert.assertTrue(originalObj.save());
+
+        // Step 2: Load only some of the fields
+        TestClass partialObj = new TestClass("partial_load_001");
+        Assert.assertTrue(partialObj.load(datastore, "intValue", "stringDoubleMap"));
+        Assert.assertTrue(partialObj.isPartial());
+        Assert.assertEquals(100, partialObj.intValue);
+        Assert.assertNull(partialObj.stringValue);
+        Assert.assertNull(partialObj.intList);
+
+        // Step 3: Modify a loaded field, a map entry and an unloaded field then save
+        partialObj.intValue = 200;
+        partialObj.stringDoubleMap.remove("a");
+        partialObj.stringDoubleMap.put("c", 3.0);
+        partialObj.booleanValue = true;
+        Assert.assertFalse(partialObj.save());
+
+        // Step 4: Unloaded fields must still be intact
+        TestClass loadedObj = new TestClass("partial_load_001");
+        Assert.assertTrue(loadedObj.load());
+        Assert.assertFalse(loadedObj.isPartial());
+        Assert.assertEquals(200, loadedObj.intValue);
+        Assert.assertTrue(loadedObj.booleanValue);
+        Assert.assertEquals("Original String", loadedObj.stringValue);
+        Assert.assertEquals(Arrays.asList(1, 2, 3), loadedObj.intList);
+        Assert.assertEquals(2, loadedObj.stringDoubleMap.size());
+        Assert.assertEquals(2.0, loadedObj.stringDoubleMap.get("b"), DOUBLE_COMPARISON_DELTA);
+        Assert.assertEquals(3.0, loadedObj.stringDoubleMap.get("c"), DOUBLE_COMPARISON_DELTA);
+    }
+
+    @Test
+    public void saveAndLoad_partialObjectsCannotBeReplaced() {
+        TestClass originalObj = new TestClass("partial_replace_001");
+        originalObj.intValue = 100;
+        Assert.assertTrue(originalObj.save());
+
+        TestClass partialObj = new TestClass("partial_replace_001");
+        Assert.assertTrue(partialObj.load(datastore, "intValue"));
+
+        try {
+            partialObj.replace();
+            Assert.fail("Expected MongomanException when replacing a partially loaded object.");
+        } catch (MongomanException e) {
+            System.out.println("Caught expected exception: " + e.getMessage());
+        }
+    }
+
+    @Test
+    public void testConcurrentSavesWithWriteConcerns() throws Exception {
+        // Step 1: Save from several threads on a datastore whose kinds were not accessed yet
+        Datastore fresh = new Datastore(datastore.getMongoClient(), datastore.name);
+        WriteConcern[] concerns = {null, WriteConcern.ACKNOWLEDGED, WriteConcern.W1, WriteConcern.JOURNALED.withW(1)};
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> saves = new ArrayList<>();
+        
+        for (int i = 0; i < 32; i++) {
+            TestClass obj = new TestClass("concurrent_save_" + i);
+            obj.intValue = i;
+            WriteConcern concern = concerns[i % concerns.length];
+            saves.add(executor.submit(() -> obj.save(fresh, concern)));
+        }
+        
+        for (Future<Boolean> save : saves)
+            Assert.assertTrue(save.get(1, TimeUnit.MINUTES));
+        
+        executor.shutdown();
+        
+        // Step 2: All threads share one collection and every object was written
+        Assert.assertSame(fresh.getCollection(TestClass.getKind(TestClass.class)), 
+                          fresh.getCollection(TestClass.getKind(TestClass.class)));
+        
+        for (int i = 0; i < 32; i++) {
+            TestClass loaded = new TestClass("concurrent_save_" + i);
+            Assert.assertTrue(loaded.load(datastore));
+            Assert.assertEquals(i, loaded.intValue);
+        }
+    }
+
+    @Test
+    public void testWarmUp() {
+        // Step 1: Warm up a datastore on the test kinds
+        Datastore fresh = new Datastore(datastore.getMongoClient(), datastore.name);
+        List<Class<? extends Base>> kinds = fresh.warmUp("junit.mongoman2.db");
+        
+        Assert.assertTrue(kinds.contains(TestClass.class));
+        Assert.assertTrue(kinds.contains(IndexedClass.class));
+        Assert.assertTrue(kinds.contains(ShallowClass.class));
+        
+        // Step 2: All collections exist and objects are read and written as usual
+        Set<String> collections = fresh.getCollections();
+        
+        for (Class<? extends Base> kind : kinds)
+            Assert.assertTrue(collections.contains(Base.getKind(kind)));
+        
+        TestClass obj = new TestClass("warm_up_001");
+        obj.intValue = 7;
+        Assert.assertTrue(obj.save(fresh));
+        
+        TestClass loaded = new TestClass("warm_up_001");
+        Assert.assertTrue(loaded.load(fresh));
+        Assert.assertEquals(7, loaded.intValue);
+    }
+
+    @Test
+    public void testHedgedReads() {
+        TestClass obj = new TestClass("hedged_read_001");
+        obj.intValue = 11;
+        Assert.assertTrue(obj.save(datastore));
+        
+        datastore.enableHedgedReads(50, 0, 1000);
+        
+        try {
+            // Step 1: Primary reads are never hedged
+            Assert.assertTrue(new TestClass("hedged_read_001").load(datastore));
+            Assert.assertEquals(0, datastore.getHedgeStats().getReads());
+            
+            // Step 2: Load repeatedly with hedging after the median latency
+            datastore.setReadPreference(ReadPreference.primaryPreferred());
+            
+            for (int i = 0; i < 200; i++) {
+                TestClass loaded = new TestClass("hedged_read_001");
+                Assert.assertTrue(loaded.load(datastore));
+                Assert.assertEquals(11, loaded.intValue);
+            }
+            
+            // Step 3: Every load was counted and the delay is known
+            HedgeStats stats = datastore.getHedgeStats();
+            Assert.assertEquals(200, stats.getReads());
+            Assert.assertTrue(stats.getDelayMillis() >= 0);
+            Assert.assertTrue(stats.getWins() <= stats.getHedged());
+        } finally {
+            datastore.disableHedgedReads();
+            datastore.setReadPreference(null);
+        }
+        
+        Assert.assertNull(datastore.getHedgeStats());
+    }
 }
+